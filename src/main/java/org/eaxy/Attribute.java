@@ -1,9 +1,16 @@
 package org.eaxy;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Attribute implements Content {
 
+    private static final String[] NO_TOKENS = new String[0];
+
     private final QualifiedName key;
     private final String value;
+    /** The whitespace separated words of the value, split the first time they're needed */
+    private volatile String[] tokens;
 
     Attribute(QualifiedName key, String value) {
         this.key = key;
@@ -18,6 +25,43 @@ public class Attribute implements Content {
         return value;
     }
 
+    /**
+     * The words of the value, like the class names of a class attribute. As attributes
+     * are replaced rather than changed, the words are only split once for each value.
+     */
+    String[] tokens() {
+        String[] result = tokens;
+        if (result == null) {
+            tokens = result = split(value);
+        }
+        return result;
+    }
+
+    boolean hasToken(String token) {
+        for (String t : tokens()) {
+            if (t.equals(token)) return true;
+        }
+        return false;
+    }
+
+    private static String[] split(String value) {
+        if (value == null) {
+            return NO_TOKENS;
+        }
+        List<String> result = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= value.length(); i++) {
+            boolean separator = i == value.length() || Character.isWhitespace(value.charAt(i));
+            if (separator && start >= 0) {
+                result.add(value.substring(start, i));
+                start = -1;
+            } else if (!separator && start < 0) {
+                start = i;
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof Attribute)) return false;
@@ -0,0 +1,43 @@
+package org.eaxy;
+
+import javax.annotation.Nullable;
+
+/**
+ * Decides whether an element matches a filter that looks at its children, one child at
+ * a time as they are read, so {@link XmlIterator} can drop an element that doesn't match
+ * before the rest of it is read. Created by {@link ElementFilter#contentMatcher()} for
+ * each element.
+ */
+interface ContentMatcher {
+
+    /**
+     * Called with each child element of the element when the child has been read in
+     * full, until the result is not null
+     *
+     * @return whether the element matches, or null if it can't be decided yet
+     */
+    @Nullable
+    Boolean childRead(Element child);
+
+    /**
+     * Whether the element matches when all its children have been read without
+     * {@link #childRead(Element)} deciding
+     */
+    default boolean contentEnded() {
+        return false;
+    }
+
+    /**
+     * Decides for an element which has been read in full
+     */
+    static boolean matches(ContentMatcher matcher, Element element) {
+        for (Element child : element.elements()) {
+            Boolean result = matcher.childRead(child);
+            if (result != null) {
+                return result;
+            }
+        }
+        return matcher.contentEnded();
+    }
+
+}
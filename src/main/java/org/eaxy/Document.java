@@ -5,7 +5,10 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 
@@ -17,6 +20,8 @@ public class Document {
     private final List<String> dtds = new ArrayList<String>();
     public static final String LINE_SEPARATOR = System.getProperty("line.separator");
     private URL baseUrl;
+    private boolean indexed;
+    private final Set<String> indexedAttributes = new LinkedHashSet<>();
 
     public Document(Element root) {
         rootElement = root;
@@ -55,6 +60,9 @@ public class Document {
 
     public void setRootElement(Element rootElement) {
         this.rootElement = rootElement;
+        if (indexed) {
+            index();
+        }
     }
 
     @Nonnull
@@ -74,14 +82,91 @@ public class Document {
         return getRootElement().select(element);
     }
 
+    /**
+     * Look up elements by their tag name in queries for descendants, like
+     * <code>find("...", "p")</code> and {@link #select(Object)}, instead of walking the
+     * whole document for each query. The index is built by the first query, and built
+     * again after elements are added or removed with {@link Element#add(Node)},
+     * {@link Element#delete(Element)}, {@link Element#take(Object)} or {@link Element#text(String)}.
+     * Elements added directly to {@link Element#children()} are not seen by the index.
+     */
+    public Document indexTagNames() {
+        indexed = true;
+        return index();
+    }
+
+    /**
+     * Look up elements by the value of the attribute in queries for descendants that
+     * filter on it, like <code>find("...", "[lang=en]")</code>, as well as by their tag name
+     * like {@link #indexTagNames()}. The index is also built again after the attribute is
+     * changed with {@link Element#attr(String, String)}. Attributes are matched by
+     * their local name.
+     */
+    public Document indexAttribute(String attributeName) {
+        indexedAttributes.add(attributeName);
+        indexed = true;
+        return index();
+    }
+
+    /**
+     * Look up elements by their id in queries like <code>select("#main")</code>
+     * and {@link org.eaxy.html.Xhtml#findById(String)}
+     *
+     * @see #indexAttribute(String)
+     */
+    public Document indexIds() {
+        return indexAttribute("id");
+    }
+
+    private Document index() {
+        Element root = getRootElement();
+        root.documentIndex(new DocumentIndex(root, indexedAttributes));
+        return this;
+    }
+
+    /**
+     * Whether an index was declared with {@link #indexTagNames()} or {@link #indexAttribute(String)}
+     */
+    boolean isIndexed() {
+        return indexed;
+    }
+
+    Collection<String> indexedAttributes() {
+        return indexedAttributes;
+    }
+
     public Document copy() {
-        Document result = new Document(rootElement.copy());
-        result.version = version;
-        result.encoding = encoding;
-        result.dtds.addAll(dtds);
+        Document result = new Document(getRootElement().copy());
+        result.version = getVersion();
+        result.encoding = getEncoding();
+        result.dtds.addAll(dtds());
+        result.baseUrl = getBaseUrl();
+        result.indexedAttributes.addAll(indexedAttributes());
+        if (isIndexed()) {
+            result.indexTagNames();
+        }
         return result;
     }
 
+    /**
+     * Returns a read-only copy of this document with a {@link Element#freeze() frozen}
+     * root element. The copy can be shared by threads without any locking: all attempts
+     * to modify it throw {@link UnsupportedOperationException}, and everything it contains
+     * is visible to any thread which gets hold of it. The declared index is built right
+     * away and kept. Use {@link #copy()} to get a modifiable document back.
+     */
+    public Document freeze() {
+        return new FrozenDocument(this);
+    }
+
+    public boolean isFrozen() {
+        return false;
+    }
+
+    List<String> dtds() {
+        return dtds;
+    }
+
     @Override
     public String toString() {
         return "Document{" + getRootElement() + "}";
@@ -108,7 +193,7 @@ public class Document {
         writer.append(getEncoding());
         writer.append("\"?>");
         writer.append(LINE_SEPARATOR);
-        for (String dtd : dtds) {
+        for (String dtd : dtds()) {
             writer.append(dtd);
             writer.append(LINE_SEPARATOR);
         }
@@ -0,0 +1,266 @@
+package org.eaxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * The elements of a document by their local name, and by the values of the attributes
+ * that were declared with {@link Document#indexAttribute(String)}, in document order.
+ * Queries for descendants with "..." only look at the elements with the right name or
+ * attribute value instead of walking the whole tree. Enabled with {@link Document#indexTagNames()}.
+ *
+ * <p>The index is built the first time it's used and thrown away when an element of
+ * the document is added or removed with {@link Element#add(Node)}, {@link Element#delete(Element)},
+ * {@link Element#take(Object)} or {@link Element#text(String)}, or when an indexed attribute
+ * is changed with {@link Element#attr(Attribute)}. Changes made directly to the
+ * list returned by {@link Element#children()} are not noticed.
+ */
+final class DocumentIndex {
+
+    private static final int[] NONE = new int[0];
+
+    /**
+     * The elements in document order, where the descendants of the element at
+     * position <code>i</code> are at the positions after <code>i</code> up to
+     * <code>ends[i]</code>
+     */
+    private static final class Snapshot {
+        private final Element[] elements;
+        private final int[] parents;
+        private final int[] ends;
+        private final Map<String, int[]> positionsByName;
+        private final Map<String, Map<String, int[]>> positionsByAttribute;
+        private final Map<Element, Integer> positions;
+
+        Snapshot(Element[] elements, int[] parents, int[] ends, Map<String, int[]> positionsByName,
+                Map<String, Map<String, int[]>> positionsByAttribute) {
+            this.elements = elements;
+            this.parents = parents;
+            this.ends = ends;
+            this.positionsByName = positionsByName;
+            this.positionsByAttribute = positionsByAttribute;
+            this.positions = new IdentityHashMap<>(elements.length);
+            for (int i = 0; i < elements.length; i++) {
+                positions.put(elements[i], i);
+            }
+        }
+    }
+
+    private final Element root;
+    private final String[] attributeNames;
+    private volatile Snapshot snapshot;
+
+    DocumentIndex(Element root, Collection<String> attributeNames) {
+        this.root = root;
+        this.attributeNames = attributeNames.toArray(new String[attributeNames.size()]);
+    }
+
+    void invalidate() {
+        snapshot = null;
+    }
+
+    void attributeChanged(String localName) {
+        if (isIndexed(localName)) {
+            invalidate();
+        }
+    }
+
+    private boolean isIndexed(String localName) {
+        for (String attributeName : attributeNames) {
+            if (attributeName.equals(localName)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds the index now instead of when it's first used
+     */
+    void prepare() {
+        snapshot();
+    }
+
+    private Snapshot snapshot() {
+        Snapshot result = snapshot;
+        if (result == null) {
+            synchronized (this) {
+                result = snapshot;
+                if (result == null) {
+                    snapshot = result = build();
+                }
+            }
+        }
+        return result;
+    }
+
+    private Snapshot build() {
+        List<Element> elements = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        Map<String, List<Integer>> positions = new HashMap<>();
+        Map<String, Map<String, List<Integer>>> attributePositions = new HashMap<>();
+        for (String attributeName : attributeNames) {
+            attributePositions.put(attributeName, new HashMap<>());
+        }
+        int[] ends = new int[16];
+        int[] stack = new int[16];
+        List<Iterator<? extends Element>> iterators = new ArrayList<>();
+        int depth = 0;
+
+        add(root, -1, elements, parents, positions, attributePositions);
+        iterators.add(root.elements().iterator());
+        while (depth >= 0) {
+            Iterator<? extends Element> iterator = iterators.get(depth);
+            if (iterator.hasNext()) {
+                Element child = iterator.next();
+                int position = add(child, stack[depth], elements, parents, positions, attributePositions);
+                depth++;
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth] = position;
+                if (depth == iterators.size()) {
+                    iterators.add(null);
+                }
+                iterators.set(depth, child.elements().iterator());
+            } else {
+                int position = stack[depth];
+                if (position >= ends.length) {
+                    ends = Arrays.copyOf(ends, Math.max(ends.length * 2, position + 1));
+                }
+                ends[position] = elements.size();
+                iterators.set(depth, null);
+                depth--;
+            }
+        }
+
+        Map<String, int[]> positionsByName = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+            positionsByName.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        Map<String, Map<String, int[]>> positionsByAttribute = new HashMap<>();
+        for (Map.Entry<String, Map<String, List<Integer>>> attribute : attributePositions.entrySet()) {
+            Map<String, int[]> positionsByValue = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> entry : attribute.getValue().entrySet()) {
+                positionsByValue.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            positionsByAttribute.put(attribute.getKey(), positionsByValue);
+        }
+        return new Snapshot(elements.toArray(new Element[elements.size()]), toArray(parents),
+                Arrays.copyOf(ends, elements.size()), positionsByName, positionsByAttribute);
+    }
+
+    private int add(Element element, int parent, List<Element> elements, List<Integer> parents,
+            Map<String, List<Integer>> positions, Map<String, Map<String, List<Integer>>> attributePositions) {
+        int position = elements.size();
+        element.documentIndex(this);
+        elements.add(element);
+        parents.add(parent);
+        positions.computeIfAbsent(element.getName().getName(), name -> new ArrayList<>()).add(position);
+        for (String attributeName : attributeNames) {
+            String value = element.attr(attributeName);
+            if (value != null) {
+                attributePositions.get(attributeName).computeIfAbsent(value, v -> new ArrayList<>()).add(position);
+            }
+        }
+        return position;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the descendants of <code>start</code> which match the filter, and the result
+     * of <code>next</code> for each of them, in the same order as walking the tree would.
+     * Returns the number of paths created, or -1 if <code>start</code> is no longer in the document.
+     */
+    int findDescendants(ElementPath start, ElementFilter filter, ElementQuery next, List<ElementPath> result) {
+        Snapshot snapshot = snapshot();
+        Integer startPosition = snapshot.positions.get(start.leafElement());
+        if (startPosition == null) {
+            return -1;
+        }
+        int end = snapshot.ends[startPosition];
+        int[] candidates = candidates(snapshot, filter);
+        int from = candidates != null ? firstAfter(candidates, startPosition) : startPosition + 1;
+        int to = candidates != null ? firstAfter(candidates, end - 1) : end;
+
+        int parentPosition = -1;
+        ElementPath parentPath = null;
+        int[] created = { 0 };
+        for (int i = from; i < to; i++) {
+            int position = candidates != null ? candidates[i] : i;
+            Element element = snapshot.elements[position];
+            if (!filter.matches(element)) {
+                continue;
+            }
+            if (snapshot.parents[position] != parentPosition) {
+                parentPosition = snapshot.parents[position];
+                parentPath = pathTo(snapshot, start, startPosition, parentPosition, created);
+            }
+            if (next instanceof ElementFilters.Identity) {
+                result.add(new ElementPath(parentPath, element));
+                created[0]++;
+            } else {
+                for (ElementPath elementPath : next.search(new ElementSet(element)).getPaths()) {
+                    result.add(new ElementPath(parentPath, elementPath.leafElement()));
+                    created[0]++;
+                }
+            }
+        }
+        return created[0];
+    }
+
+    /**
+     * The positions of the elements that the filter may match, using whichever of
+     * the name and the attribute value has fewer elements, or null if the filter
+     * can't use the index. The filter still has to be checked for each candidate.
+     * Attributes are indexed by the value of the first attribute with the local name,
+     * like {@link Element#attr(String)}, so only filters on attributes without a
+     * namespace use them.
+     */
+    @Nullable
+    private int[] candidates(Snapshot snapshot, ElementFilter filter) {
+        String name = filter.indexedName();
+        int[] candidates = name != null ? snapshot.positionsByName.getOrDefault(name, NONE) : null;
+        Attribute attribute = filter.indexedAttribute();
+        if (attribute != null && !attribute.getKey().hasNamespace()) {
+            Map<String, int[]> positionsByValue = snapshot.positionsByAttribute.get(attribute.getKey().getName());
+            if (positionsByValue != null) {
+                int[] attributeCandidates = positionsByValue.getOrDefault(attribute.getValue(), NONE);
+                if (candidates == null || attributeCandidates.length < candidates.length) {
+                    candidates = attributeCandidates;
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * The index of the first position in the sorted array that is greater than <code>position</code>
+     */
+    private static int firstAfter(int[] positions, int position) {
+        int index = Arrays.binarySearch(positions, position);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private static ElementPath pathTo(Snapshot snapshot, ElementPath start, int startPosition, int position, int[] created) {
+        if (position == startPosition) {
+            return start;
+        }
+        created[0]++;
+        return new ElementPath(pathTo(snapshot, start, startPosition, snapshot.parents[position], created), snapshot.elements[position]);
+    }
+
+}
@@ -77,7 +77,7 @@ public class DomTransformer {
     public static org.w3c.dom.Element createElement(org.w3c.dom.Document doc, Element element) {
         org.w3c.dom.Element domElement = createElement(doc, element.getName());
 
-        for (Namespace namespace : element.getNamespaces()) {
+        for (Namespace namespace : element.declaredNamespaces()) {
             addNamespace(domElement, namespace);
         }
 
@@ -85,7 +85,7 @@ public class DomTransformer {
             addAttribute(domElement, attrName, element.attr(attrName));
         }
 
-        for (org.eaxy.Node child : element.children()) {
+        for (org.eaxy.Node child : element.childNodes()) {
             if (child instanceof Element) {
                 domElement.appendChild(createElement(doc, (Element)child));
             } else if (child instanceof TextElement) {
@@ -2,43 +2,77 @@ package org.eaxy;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * The elements of a parsed document are kept as small as possible: most of them have
+ * no namespace declarations and a few attributes, and many have no children. The
+ * children and namespace lists are only created when the first one is added, the
+ * attributes are kept in an array in document order and the line number is a
+ * primitive.
+ *
+ * <p>{@link #freeze()} returns a read-only copy of the element and its descendants,
+ * which can be queried from several threads at the same time.
+ */
 @ParametersAreNonnullByDefault
 public class Element implements Node {
 
+    private static final Attribute[] NO_ATTRIBUTES = new Attribute[0];
+
+    private static final int NO_LINE_NUMBER = -1;
+
+    private static final QualifiedName CLASS = new QualifiedName("class");
+
     private final QualifiedName name;
-    @Nonnull
-    private final List<Node> children = new ArrayList<>();
-    private final Map<QualifiedName,Attribute> attributes = new LinkedHashMap<QualifiedName, Attribute>();
+    @Nullable
+    private List<Node> children;
+    private Attribute[] attributes = NO_ATTRIBUTES;
+    private int attributeCount;
     // TODO: Maybe namespaces should be part of the attributes - are namespaces attributes?
-    private final List<Namespace> namespaces = new ArrayList<Namespace>();
-    private Integer lineNumber;
+    @Nullable
+    private List<Namespace> namespaces;
+    private int lineNumber = NO_LINE_NUMBER;
+    private boolean frozen;
+    @Nullable
+    private List<Element> childElements;
+    /** The index of the document this element was in when the index was built */
+    @Nullable
+    private DocumentIndex documentIndex;
 
     Element(QualifiedName name, Content... contents) {
-        this(name, Objects.list(contents, Attribute.class),
-                Objects.list(contents, Namespace.class), null);
-        children.addAll(Objects.list(contents, Node.class));
+        this(name, Arrays.asList(contents));
     }
 
     Element(QualifiedName name, Iterable<Content> contents) {
         this(name, Objects.list(contents, Attribute.class),
                 Objects.list(contents, Namespace.class), null);
-        children.addAll(Objects.list(contents, Node.class));
+        for (Content content : contents) {
+            if (content instanceof Node) {
+                add((Node) content);
+            }
+        }
     }
 
-    Element(QualifiedName name, Collection<Attribute> attrs, Collection<Namespace> namespaces, Integer lineNumber) {
+    Element(QualifiedName name, Collection<Attribute> attrs, Collection<Namespace> namespaces, @Nullable Integer lineNumber) {
         this.name = name;
-		this.lineNumber = lineNumber;
+        if (lineNumber != null) {
+            this.lineNumber = lineNumber;
+        }
         if (name.hasNamespace() && !namespaces.contains(name.getNamespace())) {
             namespace(name.getNamespace());
         }
@@ -48,10 +82,78 @@ public class Element implements Node {
         attrs(attrs);
     }
 
+    Element(QualifiedName name) {
+        this.name = name;
+        if (name.hasNamespace()) {
+            namespace(name.getNamespace());
+        }
+    }
+
     public Element(QualifiedName name, int lineNumber) {
-    	this(name, new Content[0]);
-		this.lineNumber = lineNumber;
-	}
+        this(name);
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * Creates a frozen copy of the original, sharing the text nodes and with the child
+     * elements frozen in turn
+     */
+    private Element(Element original) {
+        this.name = original.name;
+        this.lineNumber = original.lineNumber;
+        this.attributes = original.attributeCount > 0
+                ? Arrays.copyOf(original.attributes, original.attributeCount) : NO_ATTRIBUTES;
+        this.attributeCount = original.attributeCount;
+        List<Namespace> namespaces = original.declaredNamespaces();
+        this.namespaces = namespaces.isEmpty() ? Collections.<Namespace>emptyList()
+                : Collections.unmodifiableList(Arrays.asList(namespaces.toArray(new Namespace[namespaces.size()])));
+        List<Node> children = original.childNodes();
+        Node[] nodes = new Node[children.size()];
+        int elementCount = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            Node child = children.get(i);
+            if (child instanceof Element) {
+                child = ((Element) child).freeze();
+                elementCount++;
+            }
+            nodes[i] = child;
+        }
+        this.children = nodes.length == 0 ? Collections.<Node>emptyList() : Collections.unmodifiableList(Arrays.asList(nodes));
+        if (elementCount == 0) {
+            this.childElements = Collections.emptyList();
+        } else {
+            Element[] elements = new Element[elementCount];
+            int j = 0;
+            for (Node node : nodes) {
+                if (node instanceof Element) elements[j++] = (Element) node;
+            }
+            this.childElements = Collections.unmodifiableList(Arrays.asList(elements));
+        }
+        this.frozen = true;
+    }
+
+    /**
+     * Returns a read-only copy of this element and all its descendants, or this element
+     * if it is already frozen. The copy supports the same queries as any other element,
+     * but all attempts to modify it throw {@link UnsupportedOperationException}. As the
+     * copy never changes, it can be read by several threads at the same time, as long
+     * as it is handed to them safely. {@link Document#freeze()} takes care of that.
+     * Use {@link #copy()} to get a modifiable element back.
+     */
+    @Nonnull
+    public Element freeze() {
+        return frozen ? this : new Element(this);
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Can't modify frozen element " + this);
+        }
+    }
 
     @Nonnull
 	public String tagName() {
@@ -59,16 +161,28 @@ public class Element implements Node {
     }
 
     public List<Namespace> getNamespaces() {
+        if (namespaces == null) {
+            namespaces = new ArrayList<>(1);
+        }
         return namespaces;
     }
 
+    /**
+     * The namespaces declared on this element, without creating a list for elements that
+     * have none. Use {@link #getNamespaces()} to add namespaces.
+     */
+    @Nonnull
+    List<Namespace> declaredNamespaces() {
+        return namespaces != null ? namespaces : Collections.<Namespace>emptyList();
+    }
+
     public Namespace getNamespace(String prefix) {
-        for (Namespace namespace : namespaces) {
+        for (Namespace namespace : declaredNamespaces()) {
             if (Objects.equals(prefix, namespace.getPrefix())) {
                 return namespace;
             }
         }
-        throw new IllegalArgumentException(prefix + " not found in " + namespaces);
+        throw new IllegalArgumentException(prefix + " not found in " + declaredNamespaces());
     }
 
     public void extendNamespaces(List<Namespace> additionalNamespaces) {
@@ -93,7 +207,11 @@ public class Element implements Node {
     }
 
     public Element add(Node node) {
-        this.children.add(node);
+        checkNotFrozen();
+        children().add(node);
+        if (documentIndex != null && node instanceof Element) {
+            documentIndex.invalidate();
+        }
         return this;
     }
 
@@ -107,16 +225,17 @@ public class Element implements Node {
     }
 
     public String printAttributes() {
-        if (attributes.isEmpty()) return "";
+        if (attributeCount == 0) return "";
         StringBuilder result = new StringBuilder();
-        for (Attribute attr : attributes.values()) {
-            result.append(" ").append(attr.toXML());
+        for (int i = 0; i < attributeCount; i++) {
+            result.append(" ").append(attributes[i].toXML());
         }
         return result.toString();
     }
 
     @Override
     public String text() {
+        if (children == null) return "";
         StringBuilder result = new StringBuilder();
         for (Node element : children) {
             result.append(element.text());
@@ -125,15 +244,20 @@ public class Element implements Node {
     }
 
     public Element text(String string) {
-        this.children.clear();
-        this.children.add(Xml.text(string));
+        checkNotFrozen();
+        if (documentIndex != null && !elements().isEmpty()) {
+            documentIndex.invalidate();
+        }
+        children().clear();
+        children.add(Xml.text(string));
         return this;
     }
 
     @Nonnull
     public Map<String, String> attrs() {
         LinkedHashMap<String, String> result = new LinkedHashMap<String, String>();
-        for (QualifiedName attrName : attributes.keySet()) {
+        for (int i = 0; i < attributeCount; i++) {
+            QualifiedName attrName = attributes[i].getKey();
             result.put(attrName.getName(), attr(attrName));
         }
         return result;
@@ -147,12 +271,29 @@ public class Element implements Node {
     @Nullable
     public String attr(QualifiedName key) {
         if (!key.hasNamespace()) {
-            for (Attribute attr : attributes.values()) {
-                if (attr.getKey().matches(key)) return attr.getValue();
+            for (int i = 0; i < attributeCount; i++) {
+                if (attributes[i].getKey().matches(key)) return attributes[i].getValue();
             }
+            return null;
         }
-        Attribute attribute = attributes.get(key);
-        return attribute != null ? attribute.getValue() : null;
+        int index = indexOf(key);
+        return index >= 0 ? attributes[index].getValue() : null;
+    }
+
+    private int indexOf(QualifiedName key) {
+        for (int i = 0; i < attributeCount; i++) {
+            if (attributes[i].getKey().equals(key)) return i;
+        }
+        return -1;
+    }
+
+    private void removeAttr(int index) {
+        checkNotFrozen();
+        if (documentIndex != null) {
+            documentIndex.attributeChanged(attributes[index].getKey().getName());
+        }
+        System.arraycopy(attributes, index + 1, attributes, index, attributeCount - index - 1);
+        attributes[--attributeCount] = null;
     }
 
     public Element attr(String name, String value) {
@@ -161,7 +302,10 @@ public class Element implements Node {
 
     public Element attr(QualifiedName key, String value) {
         if (value == null) {
-            attributes.remove(key);
+            int index = indexOf(key);
+            if (index >= 0) {
+                removeAttr(index);
+            }
         } else {
             attr(new Attribute(key, value));
         }
@@ -169,15 +313,27 @@ public class Element implements Node {
     }
 
     public Element attr(Attribute attribute) {
+        checkNotFrozen();
         if (attribute.getKey().hasNamespace()) {
             namespace(attribute.getKey().getNamespace());
         }
-        attributes.put(attribute.getKey(), attribute);
+        int index = indexOf(attribute.getKey());
+        if (index >= 0) {
+            attributes[index] = attribute;
+        } else {
+            if (attributeCount == attributes.length) {
+                attributes = Arrays.copyOf(attributes, attributeCount == 0 ? 2 : attributeCount * 2);
+            }
+            attributes[attributeCount++] = attribute;
+        }
+        if (documentIndex != null) {
+            documentIndex.attributeChanged(attribute.getKey().getName());
+        }
         return this;
     }
 
     public boolean hasAttr(String name) {
-        return attributes.containsKey(new QualifiedName(name));
+        return indexOf(new QualifiedName(name)) >= 0;
     }
 
     public String toIndentedXML() {
@@ -205,21 +361,22 @@ public class Element implements Node {
         if (namespace.getUri() == null) {
             throw new IllegalArgumentException("Invalid namespace " + namespace);
         }
-        for (Namespace existingNamespace : namespaces) {
+        checkNotFrozen();
+        for (Namespace existingNamespace : declaredNamespaces()) {
             if (Objects.equals(namespace.getPrefix(), existingNamespace.getPrefix())) {
                 return this;
             }
         }
-        namespaces.add(namespace);
+        getNamespaces().add(namespace);
         return this;
     }
 
     @Override
     public String toString() {
-        if (children.isEmpty()) {
-            return "<" + printTag() + printAttributes() + " />" + (lineNumber != null ? "@" + lineNumber : "");
+        if (childNodes().isEmpty()) {
+            return "<" + printTag() + printAttributes() + " />" + (lineNumber != NO_LINE_NUMBER ? "@" + lineNumber : "");
         } else {
-            return "<" + printTag() + printAttributes() + ">...</" + printTag() + ">" + (lineNumber != null ? "@" + lineNumber : "");
+            return "<" + printTag() + printAttributes() + ">...</" + printTag() + ">" + (lineNumber != NO_LINE_NUMBER ? "@" + lineNumber : "");
         }
     }
 
@@ -246,21 +403,39 @@ public class Element implements Node {
 
     @Nonnull
     public Element take(Object selector) {
+        checkNotFrozen();
         Element result = select(selector);
-        children.remove(result);
+        childNodes().remove(result);
+        if (documentIndex != null) {
+            documentIndex.invalidate();
+        }
         return result;
     }
 
     @Nonnull
     public List<? extends Element> elements() {
+        if (childElements != null) return childElements;
+        if (children == null) return Collections.emptyList();
         return Objects.list(children, Element.class);
     }
 
     @Nonnull
     public List<Node> children() {
+        if (children == null) {
+            children = new ArrayList<>(2);
+        }
         return children;
     }
 
+    /**
+     * The children of this element, without creating a list for elements that have none.
+     * Use {@link #children()} to add children.
+     */
+    @Nonnull
+    List<Node> childNodes() {
+        return children != null ? children : Collections.<Node>emptyList();
+    }
+
     public String className() {
         return attr("class");
     }
@@ -271,13 +446,31 @@ public class Element implements Node {
 
     public Element removeClass(String classToRemove) {
         if (hasClass(classToRemove)) {
-            attr("class", className().replaceAll("\\s*\\b" + classToRemove + "\\b", ""));
+            StringBuilder classes = new StringBuilder();
+            for (String token : classAttribute().tokens()) {
+                if (!token.equals(classToRemove)) {
+                    classes.append(classes.length() > 0 ? " " : "").append(token);
+                }
+            }
+            attr("class", classes.toString());
         }
         return this;
     }
 
+    /**
+     * True if the class name is one of the whitespace separated names in the class attribute
+     */
     public boolean hasClass(String className) {
-        return className().matches(".*\\b" + className + "\\b.*");
+        Attribute classAttribute = classAttribute();
+        return classAttribute != null && classAttribute.hasToken(className);
+    }
+
+    @Nullable
+    private Attribute classAttribute() {
+        for (int i = 0; i < attributeCount; i++) {
+            if (attributes[i].getKey().matches(CLASS)) return attributes[i];
+        }
+        return null;
     }
 
     public String name() {
@@ -325,7 +518,7 @@ public class Element implements Node {
         if (checked) {
             attr("checked", "checked");
         } else {
-            attributes.remove(new QualifiedName("checked"));
+            attr(new QualifiedName("checked"), null);
         }
         return this;
     }
@@ -338,7 +531,7 @@ public class Element implements Node {
         if (selected) {
             attr("selected", "selected");
         } else {
-            attributes.remove(new QualifiedName("selected"));
+            attr(new QualifiedName("selected"), null);
         }
         return this;
     }
@@ -346,14 +539,21 @@ public class Element implements Node {
     @Override
     public Element copy() {
         Element element = copyElement();
-        for (Node o : children) {
-            element.children.add(o.copy());
+        for (Node o : childNodes()) {
+            element.add(o.copy());
         }
         return element;
     }
 
     public Element copyElement() {
-        return new Element(this.name, attributes.values(), namespaces, lineNumber);
+        Element element = new Element(this.name);
+        element.lineNumber = lineNumber;
+        for (Namespace namespace : declaredNamespaces()) {
+            element.namespace(namespace);
+        }
+        element.attributes = attributeCount > 0 ? Arrays.copyOf(attributes, attributeCount) : NO_ATTRIBUTES;
+        element.attributeCount = attributeCount;
+        return element;
     }
 
     Element attrs(Collection<Attribute> attributes) {
@@ -364,11 +564,77 @@ public class Element implements Node {
     }
 
     public void delete(Element existingChild) {
-        children.remove(existingChild);
+        checkNotFrozen();
+        if (childNodes().remove(existingChild) && documentIndex != null) {
+            documentIndex.invalidate();
+        }
+    }
+
+    @Nullable
+    DocumentIndex documentIndex() {
+        return documentIndex;
+    }
+
+    void documentIndex(DocumentIndex documentIndex) {
+        this.documentIndex = documentIndex;
     }
 
     public Set<QualifiedName> attrNames() {
-        return attributes.keySet();
+        return new AttributeNames();
+    }
+
+    /**
+     * A view of the attribute names in document order, like the key set of a map
+     */
+    private class AttributeNames extends AbstractSet<QualifiedName> {
+        @Override
+        public int size() {
+            return attributeCount;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof QualifiedName && indexOf((QualifiedName) o) >= 0;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            int index = o instanceof QualifiedName ? indexOf((QualifiedName) o) : -1;
+            if (index < 0) return false;
+            removeAttr(index);
+            return true;
+        }
+
+        @Override
+        public Iterator<QualifiedName> iterator() {
+            return new Iterator<QualifiedName>() {
+                private int next = 0;
+                private int expectedCount = attributeCount;
+                private boolean canRemove;
+
+                @Override
+                public boolean hasNext() {
+                    return next < attributeCount;
+                }
+
+                @Override
+                public QualifiedName next() {
+                    if (expectedCount != attributeCount) throw new ConcurrentModificationException();
+                    if (next >= attributeCount) throw new NoSuchElementException();
+                    canRemove = true;
+                    return attributes[next++].getKey();
+                }
+
+                @Override
+                public void remove() {
+                    if (!canRemove) throw new IllegalStateException();
+                    if (expectedCount != attributeCount) throw new ConcurrentModificationException();
+                    removeAttr(--next);
+                    expectedCount = attributeCount;
+                    canRemove = false;
+                }
+            };
+        }
     }
 
 
@@ -2,10 +2,12 @@ package org.eaxy;
 
 import java.io.Reader;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
@@ -24,6 +26,58 @@ abstract class ElementFilter implements ElementQuery {
 
     public abstract boolean matches(Element element);
 
+    /**
+     * False if no element with this name can match the filter. Lets {@link XmlIterator}
+     * rule out elements without building them.
+     */
+    boolean canMatch(QualifiedName name) {
+        return true;
+    }
+
+    /**
+     * True if the filter only looks at the name of the element, so that
+     * {@link #canMatch(QualifiedName)} is enough to decide whether it matches
+     */
+    boolean matchesOnName() {
+        return false;
+    }
+
+    /**
+     * The local name that all matching elements have, so {@link DocumentIndex} can look
+     * them up, or null if the filter matches elements with any name
+     */
+    @Nullable
+    String indexedName() {
+        return null;
+    }
+
+    /**
+     * The attribute value that all matching elements have, so {@link DocumentIndex} can
+     * look them up if the attribute is indexed, or null if there is no such attribute
+     */
+    @Nullable
+    Attribute indexedAttribute() {
+        return null;
+    }
+
+    /**
+     * Whether an element could match when only its start tag has been read, so it has
+     * no children yet. Filters that look at the children match unless the start
+     * tag rules the element out, and are decided with {@link #contentMatcher()}.
+     */
+    boolean matchesStartTag(Element element) {
+        return matches(element);
+    }
+
+    /**
+     * Decides on the children of an element which matched {@link #matchesStartTag(Element)},
+     * or null if the filter doesn't look at the children. Returns a new matcher for each element.
+     */
+    @Nullable
+    ContentMatcher contentMatcher() {
+        return null;
+    }
+
     @Override
     public String toString() {
         return filterName;
@@ -32,15 +86,30 @@ abstract class ElementFilter implements ElementQuery {
     @SuppressWarnings("null")
 	@Override @Nonnull
     public final ElementSet search(ElementSet elements) {
-        List<ElementPath> elementPaths = new ArrayList<ElementPath>();
-        for (ElementPath element : elements.getPaths()) {
-            for (@Nonnull Element child : element.leafElement().elements()) {
-                if (this.matches(child)) {
-                    elementPaths.add(new ElementPath(element, child));
+        Iterator<ElementPath> parents = elements.pathIterator();
+        return elements.nestedSet(this, new ElementPathIterator() {
+            private ElementPath parent;
+            private List<Node> children = Collections.emptyList();
+            private int position;
+
+            @Override
+            ElementPath computeNext() {
+                while (true) {
+                    while (position < children.size()) {
+                        Node child = children.get(position++);
+                        if (child instanceof Element && matches((Element) child)) {
+                            return createPath(parent, (Element) child);
+                        }
+                    }
+                    if (!parents.hasNext()) {
+                        return null;
+                    }
+                    parent = parents.next();
+                    children = parent.leafElement().childNodes();
+                    position = 0;
                 }
             }
-        }
-        return elements.nestedSet(this, elementPaths);
+        });
     }
 
     @Override @Nonnull
@@ -2,9 +2,15 @@ package org.eaxy;
 
 import java.io.Reader;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -51,9 +57,11 @@ public class ElementFilters {
         }
     }
 
-    private static final class ElementDescendantQuery implements ElementQuery {
+    private static final class ElementDescendantQuery implements ElementQuery, QueryProfile.Profiled {
         private final ElementFilter filter;
-        private ElementQuery next;
+        private final ElementQuery next;
+        @Nullable
+        private final QueryProfile.Step step;
 
         private ElementDescendantQuery(ElementQuery filter) {
             if (filter instanceof ChildQuery) {
@@ -63,32 +71,256 @@ public class ElementFilters {
                 this.filter = (ElementFilter)filter;
                 this.next = new Identity();
             }
+            this.step = null;
+        }
+
+        private ElementDescendantQuery(ElementFilter filter, ElementQuery next, QueryProfile.Step step) {
+            this.filter = filter;
+            this.next = next;
+            this.step = step;
+        }
+
+        @Override
+        public QueryProfile.Step step() {
+            return step;
         }
 
         @Override @Nonnull
         public ElementSet search(@Nonnull ElementSet elements) {
-            List<ElementPath> elementPaths = new ArrayList<>();
-            for (ElementPath element : elements.getPaths()) {
-                findDescendants(element, elementPaths);
-            }
-            return elements.nestedSet(this, elementPaths);
+            return elements.nestedSet(this, new DescendantIterator(elements.pathIterator()));
         }
 
         @Override
         public boolean matches(List<Element> path, int position) {
-            return position < path.size() && filter.matches(path.get(path.size()-1));
+            for (int i = position; i < path.size(); i++) {
+                if (filter.matches(path.get(i)) && next.matches(path, i + 1)) {
+                    return true;
+                }
+            }
+            return false;
         }
 
-        @SuppressWarnings("null")
-		private void findDescendants(ElementPath element, List<ElementPath> elementPaths) {
-            for (Element child : element.leafElement().elements()) {
-                if (filter.matches(child)) {
-                    ElementSet search = next.search(new ElementSet(child));
-                    for (ElementPath elementPath : search.getPaths()) {
-                        elementPaths.add(new ElementPath(element, elementPath.leafElement()));
+        /**
+         * Walks the descendants of each element depth first, stopping after each match.
+         * The walk keeps a stack of the open elements and the position in their child
+         * nodes instead of creating objects for each element. Paths are only created
+         * for the matches and their ancestors, and are shared by matches with the same parent.
+         */
+        private final class DescendantIterator extends ElementPathIterator {
+            private Iterator<ElementPath> startPaths;
+            private Element[] elements = new Element[16];
+            private int[] positions = new int[16];
+            private ElementPath[] paths = new ElementPath[16];
+            private int depth = -1;
+            private Iterator<ElementPath> matches = Collections.emptyIterator();
+            private ElementPath matchParent;
+
+            DescendantIterator(Iterator<ElementPath> startPaths) {
+                this.startPaths = startPaths;
+            }
+
+            @Override
+            ElementPath computeNext() {
+                while (true) {
+                    if (matches.hasNext()) {
+                        ElementPath match = matches.next();
+                        return matchParent != null ? createPath(matchParent, match.leafElement()) : match;
+                    }
+                    if (depth < 0) {
+                        if (!startPaths.hasNext()) {
+                            return null;
+                        }
+                        ElementPath start = startPaths.next();
+                        DocumentIndex index = start.leafElement().documentIndex();
+                        List<ElementPath> indexed = index != null ? new ArrayList<>() : null;
+                        int created = index != null ? index.findDescendants(start, filter, next, indexed) : -1;
+                        if (created >= 0) {
+                            pathsCreated(created);
+                            matches = indexed.iterator();
+                            matchParent = null;
+                        } else {
+                            push(start.leafElement());
+                            paths[0] = start;
+                        }
+                        continue;
+                    }
+                    List<Node> children = elements[depth].childNodes();
+                    int position = positions[depth];
+                    if (position >= children.size()) {
+                        elements[depth] = null;
+                        paths[depth] = null;
+                        depth--;
+                        continue;
+                    }
+                    positions[depth] = position + 1;
+                    Node node = children.get(position);
+                    if (!(node instanceof Element)) {
+                        continue;
+                    }
+                    Element child = (Element) node;
+                    push(child);
+                    if (filter.matches(child)) {
+                        if (next instanceof Identity) {
+                            return path(depth);
+                        }
+                        matches = next.search(new ElementSet(child)).pathIterator();
+                        matchParent = path(depth - 1);
+                    }
+                }
+            }
+
+            private void push(Element element) {
+                depth++;
+                if (depth == elements.length) {
+                    elements = Arrays.copyOf(elements, depth * 2);
+                    positions = Arrays.copyOf(positions, depth * 2);
+                    paths = Arrays.copyOf(paths, depth * 2);
+                }
+                elements[depth] = element;
+                positions[depth] = 0;
+                paths[depth] = null;
+            }
+
+            /**
+             * The path to the open element at the depth, creating the paths of
+             * its ancestors that haven't been needed before
+             */
+            private ElementPath path(int depth) {
+                int known = depth;
+                while (paths[known] == null) {
+                    known--;
+                }
+                for (int i = known + 1; i <= depth; i++) {
+                    paths[i] = createPath(paths[i - 1], elements[i]);
+                }
+                return paths[depth];
+            }
+
+            @Override
+            Spliterator<ElementPath> parallelSpliterator() {
+                List<ElementPath> starts = new ArrayList<>();
+                startPaths.forEachRemaining(starts::add);
+                startPaths = starts.iterator();
+                List<ElementPath> roots = new ArrayList<>();
+                for (ElementPath start : starts) {
+                    if (start.leafElement().documentIndex() != null) {
+                        // Looking up the matches in the index is faster than splitting the walk
+                        return null;
+                    }
+                    for (Element child : start.leafElement().elements()) {
+                        roots.add(new ElementPath(start, child));
+                    }
+                }
+                return new DescendantSpliterator(new ArrayList<>(), roots, 0, roots.size(),
+                        ForkJoinPool.getCommonPoolParallelism() * 16);
+            }
+        }
+
+        /**
+         * Walks subtrees in document order. Splitting divides the subtrees between
+         * the two halves, or when only one subtree is left, replaces it with the
+         * subtrees of its children, so a deep document is split as well as a wide one.
+         * The number of times a search is split is limited by a budget.
+         */
+        private final class DescendantSpliterator implements Spliterator<ElementPath> {
+            /** Matches to return before the subtrees */
+            private List<ElementPath> matches;
+            private int matchPosition;
+            private List<ElementPath> roots;
+            private int from;
+            private int to;
+            private int budget;
+            private Iterator<ElementPath> descendants;
+
+            DescendantSpliterator(List<ElementPath> matches, List<ElementPath> roots, int from, int to, int budget) {
+                this.matches = matches;
+                this.roots = roots;
+                this.from = from;
+                this.to = to;
+                this.budget = budget;
+            }
+
+            @Override
+            public boolean tryAdvance(Consumer<? super ElementPath> action) {
+                while (true) {
+                    if (matchPosition < matches.size()) {
+                        action.accept(matches.get(matchPosition++));
+                        return true;
+                    }
+                    if (descendants != null && descendants.hasNext()) {
+                        action.accept(descendants.next());
+                        return true;
+                    }
+                    if (from >= to) {
+                        return false;
+                    }
+                    ElementPath root = roots.get(from++);
+                    matches = new ArrayList<>();
+                    matchPosition = 0;
+                    addMatches(root, matches);
+                    descendants = new DescendantIterator(Collections.singletonList(root).iterator());
+                }
+            }
+
+            @Override
+            public Spliterator<ElementPath> trySplit() {
+                if (descendants != null || budget < 2) {
+                    return null;
+                }
+                while (to - from == 1) {
+                    ElementPath root = roots.get(from);
+                    List<? extends Element> children = root.leafElement().elements();
+                    if (children.isEmpty()) {
+                        return null;
+                    }
+                    List<ElementPath> rootMatches = new ArrayList<>(matches.subList(matchPosition, matches.size()));
+                    addMatches(root, rootMatches);
+                    matches = rootMatches;
+                    matchPosition = 0;
+                    roots = new ArrayList<>(children.size());
+                    for (Element child : children) {
+                        roots.add(new ElementPath(root, child));
+                    }
+                    from = 0;
+                    to = roots.size();
+                }
+                if (to - from < 2) {
+                    return null;
+                }
+                int middle = (from + to) >>> 1;
+                DescendantSpliterator result = new DescendantSpliterator(
+                        matches.subList(matchPosition, matches.size()), roots, from, middle, budget / 2);
+                matches = Collections.emptyList();
+                matchPosition = 0;
+                from = middle;
+                budget -= budget / 2;
+                return result;
+            }
+
+            @Override
+            public long estimateSize() {
+                return Long.MAX_VALUE;
+            }
+
+            @Override
+            public int characteristics() {
+                return ORDERED | NONNULL;
+            }
+        }
+
+        /**
+         * Adds the matches of the query for the element at the end of the path, as
+         * the descendant iterator would
+         */
+        private void addMatches(ElementPath path, List<ElementPath> result) {
+            if (filter.matches(path.leafElement())) {
+                if (next instanceof Identity) {
+                    result.add(path);
+                } else {
+                    for (ElementPath match : next.search(new ElementSet(path.leafElement())).getPaths()) {
+                        result.add(new ElementPath(path.getParent(), match.leafElement()));
                     }
                 }
-                findDescendants(new ElementPath(element, child), elementPaths);
             }
         }
 
@@ -108,21 +340,44 @@ public class ElementFilters {
         }
     }
 
-    private static final class ElementPositionFilter implements ElementQuery {
+    private static final class ElementPositionFilter implements ElementQuery, QueryProfile.Profiled {
         private final Number position;
+        @Nullable
+        private final QueryProfile.Step step;
 
         private ElementPositionFilter(Number position) {
+            this(position, null);
+        }
+
+        private ElementPositionFilter(Number position, @Nullable QueryProfile.Step step) {
             this.position = position;
+            this.step = step;
+        }
+
+        @Override
+        public QueryProfile.Step step() {
+            return step;
         }
 
         @Override @Nonnull
         public ElementSet search(@Nonnull ElementSet elements) {
-            if (intValue() < elements.size()) {
-                ElementPath path = elements.getPaths().get(intValue());
-                return elements.nestedSet(this, Arrays.asList(path));
-            } else {
-                return elements.nestedSet(this, new ArrayList<ElementPath>());
-            }
+            Iterator<ElementPath> paths = elements.pathIterator();
+            return elements.nestedSet(this, new ElementPathIterator() {
+                private boolean found;
+
+                @Override
+                ElementPath computeNext() {
+                    if (found) {
+                        return null;
+                    }
+                    found = true;
+                    for (int i = 0; i < intValue(); i++) {
+                        if (!paths.hasNext()) return null;
+                        paths.next();
+                    }
+                    return paths.hasNext() ? paths.next() : null;
+                }
+            });
         }
 
         private int intValue() {
@@ -139,6 +394,21 @@ public class ElementFilters {
             throw new UnsupportedOperationException();
         }
 
+        @Override @Nonnull
+        public XmlIterable iterate(@Nonnull Reader reader, @Nonnull ParseOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override @Nonnull
+        public XmlIterable iterate(@Nonnull URL url, @Nonnull ParseOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override @Nonnull
+        public XmlIterable iterate(@Nonnull Path path, @Nonnull ParseOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
         @Override
         public boolean matches(List<Element> path, int position) {
             throw new UnsupportedOperationException();
@@ -171,7 +441,181 @@ public class ElementFilters {
         return tagName(filter);
     }
 
+    /**
+     * Compiles a query for {@link XmlIterator}, or returns null if the query can only
+     * be matched against the built elements
+     */
+    @Nullable
+    static StreamingMatcher streamingMatcher(ElementQuery query) {
+        if (query instanceof QueryProfile) {
+            return streamingMatcher(((QueryProfile) query).query());
+        }
+        if (query instanceof AnyQuery) {
+            List<StreamingMatcher> matchers = new ArrayList<>();
+            int stepCount = 0;
+            for (ElementQuery alternative : ((AnyQuery) query).queries) {
+                StreamingMatcher matcher = streamingMatcher(alternative);
+                if (matcher == null) {
+                    return null;
+                }
+                stepCount += matcher.stepCount();
+                matchers.add(matcher);
+            }
+            return stepCount <= StreamingMatcher.MAX_STEPS + 1 ? StreamingMatcher.union(matchers) : null;
+        }
+        List<ElementFilter> steps = new ArrayList<>();
+        long descendantSteps = 0;
+        while (!(query instanceof Identity)) {
+            if (steps.size() == StreamingMatcher.MAX_STEPS) {
+                return null;
+            }
+            if (query instanceof ChildQuery) {
+                ChildQuery childQuery = (ChildQuery) query;
+                if (!(childQuery.parent instanceof ElementFilter)) {
+                    return null;
+                }
+                steps.add((ElementFilter) childQuery.parent);
+                query = childQuery.child;
+            } else if (query instanceof ElementDescendantQuery) {
+                ElementDescendantQuery descendantQuery = (ElementDescendantQuery) query;
+                descendantSteps |= 1L << steps.size();
+                steps.add(descendantQuery.filter);
+                query = descendantQuery.next;
+            } else if (query instanceof ElementFilter) {
+                steps.add((ElementFilter) query);
+                break;
+            } else {
+                return null;
+            }
+        }
+        if (steps.isEmpty()) {
+            return null;
+        }
+        // The steps before the last are decided on the start tag, as the rest of the path is matched in their content
+        for (int i = 0; i < steps.size() - 1; i++) {
+            if (steps.get(i).contentMatcher() != null) {
+                throw new IllegalArgumentException("Predicates on the children are only supported on the last step, was " + steps.get(i));
+            }
+        }
+        return new StreamingMatcher(steps.toArray(new ElementFilter[steps.size()]), descendantSteps);
+    }
+
+    /**
+     * A copy of the query where each step counts its work in the profile
+     */
+    static ElementQuery profile(ElementQuery query, QueryProfile profile) {
+        if (query instanceof ChildQuery) {
+            ChildQuery childQuery = (ChildQuery) query;
+            ElementQuery parent = profileStep(childQuery.parent, "child", profile);
+            return new ChildQuery(parent, profile(childQuery.child, profile));
+        } else if (query instanceof ElementDescendantQuery) {
+            ElementDescendantQuery descendantQuery = (ElementDescendantQuery) query;
+            QueryProfile.Step step = profile.addStep(descendantQuery.filter.toString(), "descendant", descendantQuery.filter);
+            return new ElementDescendantQuery(new ProfiledFilter(descendantQuery.filter, step),
+                    profile(descendantQuery.next, profile), step);
+        } else if (query instanceof AnyQuery) {
+            List<ElementQuery> alternatives = new ArrayList<>();
+            for (ElementQuery alternative : ((AnyQuery) query).queries) {
+                alternatives.add(profile(alternative, profile));
+            }
+            return new AnyQuery(alternatives);
+        }
+        return profileStep(query, "child", profile);
+    }
+
+    private static ElementQuery profileStep(ElementQuery query, String kind, QueryProfile profile) {
+        if (query instanceof ElementFilter) {
+            ElementFilter filter = (ElementFilter) query;
+            return new ProfiledFilter(filter, profile.addStep(filter.toString(), kind, filter));
+        } else if (query instanceof ElementPositionFilter) {
+            Number position = ((ElementPositionFilter) query).position;
+            return new ElementPositionFilter(position, profile.addStep(position.toString(), "position", null));
+        }
+        return query;
+    }
+
+    /**
+     * Counts the elements the filter is checked against and matches. The time of an
+     * in-memory search is measured by the set of the step, and the time of iterating
+     * by the checks of the start tags.
+     */
+    private static final class ProfiledFilter extends ElementFilter implements QueryProfile.Profiled {
+        private final ElementFilter filter;
+        private final QueryProfile.Step step;
+
+        ProfiledFilter(ElementFilter filter, QueryProfile.Step step) {
+            super(filter.toString());
+            this.filter = filter;
+            this.step = step;
+        }
+
+        @Override
+        public QueryProfile.Step step() {
+            return step;
+        }
+
+        @Override
+        public boolean matches(Element element) {
+            step.visited++;
+            boolean result = filter.matches(element);
+            if (result) step.matched++;
+            return result;
+        }
+
+        @Override
+        boolean canMatch(QualifiedName name) {
+            long start = System.nanoTime();
+            step.visited++;
+            boolean result = filter.canMatch(name);
+            if (result && filter.matchesOnName()) step.matched++;
+            step.nanos += System.nanoTime() - start;
+            return result;
+        }
+
+        @Override
+        boolean matchesStartTag(Element element) {
+            long start = System.nanoTime();
+            boolean result = filter.matchesStartTag(element);
+            if (result) step.matched++;
+            step.nanos += System.nanoTime() - start;
+            return result;
+        }
+
+        @Override
+        boolean matchesOnName() {
+            return filter.matchesOnName();
+        }
+
+        @Override
+        String indexedName() {
+            return filter.indexedName();
+        }
+
+        @Override
+        Attribute indexedAttribute() {
+            return filter.indexedAttribute();
+        }
+
+        @Override
+        ContentMatcher contentMatcher() {
+            return filter.contentMatcher();
+        }
+    }
+
+    private static final QueryCache queries = new QueryCache(512);
+
+    /**
+     * The query for the path. Queries for paths of strings and positions are compiled
+     * once and shared, so repeating a path doesn't parse it again.
+     */
     public static ElementQuery create(Object... path) {
+        if (QueryCache.isCacheable(path)) {
+            return queries.get(path, ElementFilters::compile);
+        }
+        return compile(path);
+    }
+
+    private static ElementQuery compile(Object... path) {
         ElementQuery query = filter(path[path.length-1]);
         for (int i = path.length-2; i >= 0 ; i--) {
             Object filter = path[i];
@@ -211,6 +655,57 @@ public class ElementFilters {
         }
     }
 
+    /**
+     * Matches the elements that match any of the queries, and tells {@link XmlIterator}
+     * which of them an element matched, for {@link XmlRouter}
+     */
+    static final class AnyQuery implements ElementQuery {
+        private final List<ElementQuery> queries;
+
+        AnyQuery(List<ElementQuery> queries) {
+            this.queries = queries;
+        }
+
+        @Override @Nonnull
+        public ElementSet search(@Nonnull ElementSet elements) {
+            List<ElementPath> elementPaths = new ArrayList<>();
+            for (ElementQuery query : queries) {
+                elementPaths.addAll(query.search(elements).getPaths());
+            }
+            return elements.nestedSet(this, elementPaths);
+        }
+
+        @Override
+        public boolean matches(List<Element> path, int position) {
+            return matchingQuery(path, position) >= 0;
+        }
+
+        /**
+         * The position of the first query that matches the path, or -1 if none do
+         */
+        int matchingQuery(List<Element> path, int position) {
+            for (int i = 0; i < queries.size(); i++) {
+                if (queries.get(i).matches(path, position)) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            return "any" + queries;
+        }
+
+        @Override @Nonnull
+        public XmlIterable iterate(@Nonnull Reader reader) {
+            return XmlIterator.iterate(this, reader);
+        }
+
+        @Override @Nonnull
+        public XmlIterable iterate(@Nonnull URL url) {
+            return XmlIterator.iterate(this, url);
+        }
+    }
+
     public static ElementQuery filter(Object filter) {
         if (filter instanceof Attribute) {
             return attrFilter((Attribute)filter);
@@ -246,11 +741,24 @@ public class ElementFilters {
         if (matcher.matches()) {
             return and(filter,
                     tagName(matcher.group(1)),
-                    attrFilter("class", matcher.group(2)));
+                    classFilter(matcher.group(2)));
         }
         return null;
     }
 
+    /**
+     * Matches the elements with the class name among the names in their class attribute,
+     * like the ".name" of a CSS selector
+     */
+    public static ElementFilter classFilter(String className) {
+        return new ElementFilter("." + className) {
+            @Override
+            public boolean matches(Element element) {
+                return element.hasClass(className);
+            }
+        };
+    }
+
     @Nullable
     public static ElementFilter attrFilter(String filter) {
         Matcher matcher = ATTRIBUTE_PATTERN.matcher(filter);
@@ -272,10 +780,16 @@ public class ElementFilters {
             public boolean matches(Element element) {
                 return attr.getValue().equals(element.attr(attr.getKey()));
             }
+
+            @Override
+            Attribute indexedAttribute() {
+                return attr;
+            }
         };
     }
 
     public static ElementFilter and(String name, final ElementFilter... filters) {
+        final boolean lookAtChildren = hasContentMatcher(filters);
         return new ElementFilter(name) {
             @Override
             public boolean matches(Element element) {
@@ -284,15 +798,203 @@ public class ElementFilters {
                 }
                 return true;
             }
+
+            @Override
+            boolean canMatch(QualifiedName name) {
+                for (ElementFilter filter : filters) {
+                    if (!filter.canMatch(name)) return false;
+                }
+                return true;
+            }
+
+            @Override
+            boolean matchesOnName() {
+                for (ElementFilter filter : filters) {
+                    if (!filter.matchesOnName()) return false;
+                }
+                return true;
+            }
+
+            @Override
+            String indexedName() {
+                for (ElementFilter filter : filters) {
+                    if (filter.indexedName() != null) return filter.indexedName();
+                }
+                return null;
+            }
+
+            @Override
+            Attribute indexedAttribute() {
+                for (ElementFilter filter : filters) {
+                    if (filter.indexedAttribute() != null) return filter.indexedAttribute();
+                }
+                return null;
+            }
+
+            @Override
+            boolean matchesStartTag(Element element) {
+                for (ElementFilter filter : filters) {
+                    if (!filter.matchesStartTag(element)) return false;
+                }
+                return true;
+            }
+
+            @Override
+            ContentMatcher contentMatcher() {
+                if (!lookAtChildren) {
+                    return null;
+                }
+                List<ContentMatcher> matchers = new ArrayList<>();
+                for (ElementFilter filter : filters) {
+                    ContentMatcher matcher = filter.contentMatcher();
+                    if (matcher != null) matchers.add(matcher);
+                }
+                if (matchers.isEmpty()) {
+                    return null;
+                }
+                return matchers.size() == 1 ? matchers.get(0) : new AllContentMatcher(matchers);
+            }
+        };
+    }
+
+    private static boolean hasContentMatcher(ElementFilter[] filters) {
+        for (ElementFilter filter : filters) {
+            if (filter.contentMatcher() != null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Matches when all the matchers do, deciding as soon as one of them doesn't match
+     */
+    private static final class AllContentMatcher implements ContentMatcher {
+        private final List<ContentMatcher> undecided;
+
+        AllContentMatcher(List<ContentMatcher> matchers) {
+            this.undecided = matchers;
+        }
+
+        @Override
+        public Boolean childRead(Element child) {
+            for (Iterator<ContentMatcher> iterator = undecided.iterator(); iterator.hasNext(); ) {
+                Boolean result = iterator.next().childRead(child);
+                if (result == null) {
+                    continue;
+                } else if (!result) {
+                    return false;
+                }
+                iterator.remove();
+            }
+            return undecided.isEmpty() ? true : null;
+        }
+
+        @Override
+        public boolean contentEnded() {
+            for (ContentMatcher matcher : undecided) {
+                if (!matcher.contentEnded()) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Matches the elements that match the filter and all the predicates, like
+     * <code>where("Legemiddelpakning", childAttr("Atc", "V", "N06BA04"))</code>. When
+     * iterating, the predicates on the children are decided while the element is read,
+     * and an element that doesn't match is dropped without reading the rest of it.
+     * Predicates are only supported on the last step of the path given to
+     * {@link ElementQuery#iterate}. Like with other matches, the content of an element
+     * that matches the start tag is not searched for more matches, even when the
+     * predicates rule the element out.
+     */
+    public static ElementFilter where(Object filter, Object... predicates) {
+        ElementFilter[] filters = new ElementFilter[predicates.length + 1];
+        filters[0] = elementFilter(filter);
+        StringBuilder name = new StringBuilder(filters[0].toString());
+        for (int i = 0; i < predicates.length; i++) {
+            filters[i + 1] = elementFilter(predicates[i]);
+            name.append("[").append(filters[i + 1]).append("]");
+        }
+        return and(name.toString(), filters);
+    }
+
+    /**
+     * Matches the elements with a child matching the filter
+     */
+    public static ElementFilter hasChild(Object childFilter) {
+        final ElementFilter filter = elementFilter(childFilter);
+        return childPredicate(filter.toString(), child -> filter.matches(child) ? Boolean.TRUE : null);
+    }
+
+    /**
+     * Matches the elements where the first child matching the filter has the attribute value.
+     * The first child decides, so an element can be dropped as soon as the child has been read.
+     */
+    public static ElementFilter childAttr(Object childFilter, String attributeName, String value) {
+        final ElementFilter filter = elementFilter(childFilter);
+        return childPredicate(filter + "/@" + attributeName + "=" + value,
+                child -> filter.matches(child) ? value.equals(child.attr(attributeName)) : null);
+    }
+
+    /**
+     * Matches the elements where the first child matching the filter has the text
+     */
+    public static ElementFilter childText(Object childFilter, String text) {
+        final ElementFilter filter = elementFilter(childFilter);
+        return childPredicate(filter + "=" + text,
+                child -> filter.matches(child) ? text.equals(child.text()) : null);
+    }
+
+    private static ElementFilter childPredicate(String name, final ContentMatcher contentMatcher) {
+        return new ElementFilter(name) {
+            @Override
+            public boolean matches(Element element) {
+                return ContentMatcher.matches(contentMatcher, element);
+            }
+
+            @Override
+            boolean matchesStartTag(Element element) {
+                return true;
+            }
+
+            @Override
+            ContentMatcher contentMatcher() {
+                return contentMatcher;
+            }
         };
     }
 
-    public static ElementFilter tagName(final String tagName) {
+    private static ElementFilter elementFilter(Object filter) {
+        ElementQuery query = filter(filter);
+        if (!(query instanceof ElementFilter)) {
+            throw new IllegalArgumentException("Expected a filter for a single element, was " + filter);
+        }
+        return (ElementFilter) query;
+    }
+
+    public static ElementFilter tagName(String tagName) {
         if (tagName.isEmpty() || tagName.equals("*")) return any();
+        // Parsed names are interned by the NameTable, so matching names are usually identical
+        final String name = tagName.intern();
         return new ElementFilter(tagName) {
             @Override
             public boolean matches(Element element) {
-                return element.getName().matches(tagName);
+                return element.getName().matches(name);
+            }
+
+            @Override
+            boolean canMatch(QualifiedName elementName) {
+                return elementName.matches(name);
+            }
+
+            @Override
+            boolean matchesOnName() {
+                return true;
+            }
+
+            @Override
+            String indexedName() {
+                return name;
             }
         };
     }
@@ -303,6 +1005,21 @@ public class ElementFilters {
             public boolean matches(Element element) {
                 return tagName.matches(element.getName());
             }
+
+            @Override
+            boolean canMatch(QualifiedName name) {
+                return tagName.matches(name);
+            }
+
+            @Override
+            boolean matchesOnName() {
+                return true;
+            }
+
+            @Override
+            String indexedName() {
+                return tagName.getName();
+            }
         };
     }
 
@@ -312,6 +1029,11 @@ public class ElementFilters {
             public boolean matches(Element element) {
                 return true;
             }
+
+            @Override
+            boolean matchesOnName() {
+                return true;
+            }
         };
     }
 
@@ -42,7 +42,7 @@ public class ElementPath {
         LinkedHashMap<String,Namespace> namespaces = new LinkedHashMap<>();
 
         for (Element hierarchy : getPath()) {
-            for (Namespace namespace : hierarchy.getNamespaces()) {
+            for (Namespace namespace : hierarchy.declaredNamespaces()) {
                 namespaces.put(namespace.getPrefix(), namespace);
             }
         }
@@ -0,0 +1,68 @@
+package org.eaxy;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+import javax.annotation.Nullable;
+
+/**
+ * Finds the matches of a query one at a time, as an {@link ElementSet} asks for them,
+ * so a query that only needs the first match stops searching when it has found it.
+ */
+abstract class ElementPathIterator implements Iterator<ElementPath> {
+
+    private ElementPath next;
+    private int createdPaths;
+
+    /**
+     * The next match, or null when there are no more
+     */
+    @Nullable
+    abstract ElementPath computeNext();
+
+    /**
+     * Divides the search between threads for {@link ElementSet#parallelStream()}, or
+     * returns null if the search can't be split. Only called before any match has
+     * been found, and leaves the iterator able to do the search by itself.
+     */
+    @Nullable
+    Spliterator<ElementPath> parallelSpliterator() {
+        return null;
+    }
+
+    /**
+     * Creates a path, counting it for {@link QueryProfile}
+     */
+    ElementPath createPath(@Nullable ElementPath parent, Element element) {
+        createdPaths++;
+        return new ElementPath(parent, element);
+    }
+
+    void pathsCreated(int count) {
+        createdPaths += count;
+    }
+
+    int createdPaths() {
+        return createdPaths;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = computeNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public ElementPath next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ElementPath result = next;
+        next = null;
+        return result;
+    }
+
+}
@@ -2,6 +2,7 @@ package org.eaxy;
 
 import java.io.Reader;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.List;
 
 import javax.annotation.Nonnull;
@@ -19,5 +20,45 @@ public interface ElementQuery {
     @Nonnull
     XmlIterable iterate(@Nonnull URL url);
 
+    @Nonnull
+    default XmlIterable iterate(@Nonnull Reader reader, @Nonnull ParseOptions options) {
+        return XmlIterator.iterate(this, reader, options);
+    }
+
+    @Nonnull
+    default XmlIterable iterate(@Nonnull URL url, @Nonnull ParseOptions options) {
+        return XmlIterator.iterate(this, url, options);
+    }
+
+    /**
+     * Iterates over the file with the native parser, straight from the memory mapped file
+     */
+    @Nonnull
+    default XmlIterable iterate(@Nonnull Path path) {
+        return iterate(path, ParseOptions.nativeParser());
+    }
+
+    @Nonnull
+    default XmlIterable iterate(@Nonnull Path path, @Nonnull ParseOptions options) {
+        return XmlIterator.iterate(this, path, options);
+    }
+
+    /**
+     * A copy of the query which counts the elements visited and matched, the paths
+     * created and the time spent for each step, when it's used with
+     * {@link ElementSet#find(Object...)} or {@link #iterate}
+     */
+    @Nonnull
+    default QueryProfile profile() {
+        return new QueryProfile(this);
+    }
+
+    /**
+     * Continues after the element where the checkpoint was made, see {@link XmlIterator#checkpoint()}
+     */
+    @Nonnull
+    default XmlIterable iterate(@Nonnull Path path, @Nonnull ParseOptions options, @Nonnull XmlCheckpoint checkpoint) {
+        return XmlIterator.iterate(this, path, options, checkpoint);
+    }
 
 }
@@ -3,10 +3,25 @@ package org.eaxy;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+/**
+ * The elements matching a query. The query is evaluated as the elements are
+ * needed, so {@link #first()} and {@link #isPresent()} stop searching at the first
+ * match and {@link #single()} at the second, while {@link #size()} and
+ * {@link #getPaths()} and {@link #iterator()} find all the matches. Changes to the
+ * document before the elements are found are seen by the query.
+ *
+ * <p>{@link #stream()} finds the elements as the stream needs them, while
+ * {@link #parallelStream()} splits a search for descendants between threads.
+ */
 public class ElementSet implements Iterable<Element> {
 
     private static ElementSet NULL_ELEMENT_SET = new ElementSet(null, null) {
@@ -16,12 +31,16 @@ public class ElementSet implements Iterable<Element> {
 
     @Nonnull
     private List<ElementPath> elementPaths = new ArrayList<>();
+    /** The matches that haven't been found yet, or null when all have been found */
+    @Nullable
+    private Iterator<ElementPath> remainingPaths;
     private ElementSet parentSet = NULL_ELEMENT_SET;
     private final Object filter;
 
     public ElementSet(@Nonnull Element element) {
         this.elementPaths.add(new ElementPath(null, element));
-        this.filter = element.toString();
+        // Only printed when a query fails, so the element is described then
+        this.filter = element;
     }
 
     private ElementSet(ElementSet parent, Object filter) {
@@ -35,9 +54,106 @@ public class ElementSet implements Iterable<Element> {
         this.elementPaths = elementPaths;
     }
 
+    private ElementSet(ElementSet parent, ElementQuery filter, Iterator<ElementPath> remainingPaths) {
+        this.parentSet = parent;
+        this.filter = filter;
+        this.remainingPaths = remainingPaths;
+    }
+
+    /**
+     * Iterates over all the matches, which are found first, so the loop may change the document
+     */
     @Override
     public Iterator<Element> iterator() {
-        return elements().iterator();
+        Iterator<ElementPath> paths = fetchAll().iterator();
+        return new Iterator<Element>() {
+            @Override
+            public boolean hasNext() {
+                return paths.hasNext();
+            }
+
+            @Override
+            public Element next() {
+                return paths.next().leafElement();
+            }
+        };
+    }
+
+    /**
+     * The elements in document order, which are found as the stream gets to them
+     */
+    @Nonnull
+    public Stream<Element> stream() {
+        Spliterator<ElementPath> paths = Spliterators.spliteratorUnknownSize(pathIterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(paths, false).map(ElementPath::leafElement);
+    }
+
+    /**
+     * The elements, found by threads in the common {@link java.util.concurrent.ForkJoinPool}.
+     * A search for descendants, like <code>find("...", "p")</code>, is split between the
+     * subtrees of the elements it starts from, unless the document is indexed. Otherwise the
+     * elements are found first and then processed in parallel. The stream is ordered, so
+     * collecting it to a list or using <code>forEachOrdered</code> gives the elements in
+     * document order, and <code>unordered()</code> saves the work where the order doesn't matter.
+     */
+    @Nonnull
+    public Stream<Element> parallelStream() {
+        Spliterator<ElementPath> paths = null;
+        if (remainingPaths instanceof ElementPathIterator && elementPaths.isEmpty()) {
+            paths = ((ElementPathIterator) remainingPaths).parallelSpliterator();
+        }
+        if (paths == null) {
+            paths = fetchAll().spliterator();
+        }
+        return StreamSupport.stream(paths, true).map(ElementPath::leafElement);
+    }
+
+    /**
+     * The paths of the matches, which are found as the iterator gets to them
+     */
+    Iterator<ElementPath> pathIterator() {
+        if (remainingPaths == null) {
+            return elementPaths.iterator();
+        }
+        return new Iterator<ElementPath>() {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return fetch(position + 1);
+            }
+
+            @Override
+            public ElementPath next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return elementPaths.get(position++);
+            }
+        };
+    }
+
+    /**
+     * Finds matches until there are at least <code>count</code> of them, and
+     * returns false if there aren't that many
+     */
+    private boolean fetch(int count) {
+        while (elementPaths.size() < count) {
+            if (remainingPaths == null) {
+                return false;
+            } else if (remainingPaths.hasNext()) {
+                elementPaths.add(remainingPaths.next());
+            } else {
+                remainingPaths = null;
+            }
+        }
+        return true;
+    }
+
+    private List<ElementPath> fetchAll() {
+        fetch(Integer.MAX_VALUE);
+        return elementPaths;
     }
 
     @Nonnull
@@ -50,8 +166,34 @@ public class ElementSet implements Iterable<Element> {
         return new ElementSet(this, filter, elementPaths);
     }
 
+    /**
+     * A set of the matches of the filter, which are taken from the iterator
+     * when they are needed
+     */
+    @Nonnull
+    ElementSet nestedSet(ElementQuery filter, Iterator<ElementPath> elementPaths) {
+        if (filter instanceof QueryProfile.Profiled) {
+            QueryProfile.Step step = ((QueryProfile.Profiled) filter).step();
+            if (step != null) {
+                elementPaths = step.measure(elementPaths);
+            }
+        }
+        return new ElementSet(this, filter, elementPaths);
+    }
+
+    /**
+     * Finds all the elements at the path, and returns how much work each step of the
+     * path did, see {@link QueryProfile}
+     */
+    @Nonnull
+    public QueryProfile profile(Object... path) {
+        QueryProfile profile = ElementFilters.create(path).profile();
+        profile.search(this).size();
+        return profile;
+    }
+
     public ElementSet check() {
-        if (!elementPaths.isEmpty()) return this;
+        if (fetch(1)) return this;
         parentSet.check();
         String message = "Can't find <" + filter + "> below " + parentSet.getPath() + ".";
         message += " Actual elements: " + parentSet.printActualChildren();
@@ -60,7 +202,7 @@ public class ElementSet implements Iterable<Element> {
 
     private String printActualChildren() {
         List<String> children = new ArrayList<String>();
-        for (ElementPath path : elementPaths) {
+        for (ElementPath path : fetchAll()) {
             for (Element subElement : path.leafElement().elements()) {
                 children.add(subElement.toString());
             }
@@ -78,7 +220,7 @@ public class ElementSet implements Iterable<Element> {
 
     public List<String> texts() {
         List<String> result = new ArrayList<String>();
-        for (ElementPath element : elementPaths) {
+        for (ElementPath element : fetchAll()) {
             result.add(element.leafElement().text().toString());
         }
         return result;
@@ -87,7 +229,7 @@ public class ElementSet implements Iterable<Element> {
     @Nonnull
     public List<String> attrs(String attrName) {
         List<String> result = new ArrayList<String>();
-        for (ElementPath element : elementPaths) {
+        for (ElementPath element : fetchAll()) {
             String attr = element.leafElement().attr(attrName);
             if (attr != null) result.add(attr);
         }
@@ -112,8 +254,8 @@ public class ElementSet implements Iterable<Element> {
     }
 
     private void checkMaxOneMatch() {
-        if (size() <= 1) return;
-        String message = "Too many matches for <" + filter + ">: " + elementPaths;
+        if (!fetch(2)) return;
+        String message = "Too many matches for <" + filter + ">: " + fetchAll();
         throw new IllegalArgumentException(message);
     }
 
@@ -124,12 +266,12 @@ public class ElementSet implements Iterable<Element> {
     }
 
     public List<ElementPath> getPaths() {
-        return elementPaths;
+        return fetchAll();
     }
 
     @Nonnull
     public ElementSet attr(String key, String value) {
-        for (ElementPath element : elementPaths) {
+        for (ElementPath element : fetchAll()) {
             element.leafElement().attr(key, value);
         }
         return this;
@@ -149,7 +291,7 @@ public class ElementSet implements Iterable<Element> {
 
     public List<String> tagNames() {
         List<String> result = new ArrayList<String>();
-        for (ElementPath element : elementPaths) {
+        for (ElementPath element : fetchAll()) {
             result.add(element.leafElement().getName().print());
         }
         return result;
@@ -157,17 +299,18 @@ public class ElementSet implements Iterable<Element> {
 
     public Element get(int pos) {
         check();
+        fetch(pos + 1);
         return elementPaths.get(pos).leafElement();
     }
 
     public int size() {
-        return elementPaths.size();
+        return fetchAll().size();
     }
 
     @Nonnull
     public List<Element> elements() {
         List<Element> elements = new ArrayList<>();
-        for (ElementPath path : elementPaths) {
+        for (ElementPath path : fetchAll()) {
             elements.add(path.leafElement());
         }
         return elements;
@@ -179,7 +322,7 @@ public class ElementSet implements Iterable<Element> {
     }
 
     public boolean isEmpty() {
-        return size() == 0;
+        return !fetch(1);
     }
 
     public boolean isPresent() {
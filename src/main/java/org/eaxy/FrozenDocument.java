@@ -0,0 +1,141 @@
+package org.eaxy;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The result of {@link Document#freeze()}. All the state is kept in final fields, so the
+ * document and the frozen elements are safely published to all threads, however the
+ * document itself is handed over.
+ *
+ * <p>The index declared on the document is built when the document is frozen, so
+ * queries never write to the frozen elements. The index can't be changed afterwards.
+ */
+final class FrozenDocument extends Document {
+
+    private final Element rootElement;
+    private final String version;
+    private final String encoding;
+    private final List<String> dtds;
+    private final URL baseUrl;
+    private final boolean indexed;
+    private final Set<String> indexedAttributes;
+
+    FrozenDocument(Document document) {
+        this.rootElement = document.getRootElement().freeze();
+        this.version = document.getVersion();
+        this.encoding = document.getEncoding();
+        this.dtds = Collections.unmodifiableList(new ArrayList<>(document.dtds()));
+        this.baseUrl = document.getBaseUrl();
+        this.indexed = document.isIndexed();
+        this.indexedAttributes = Collections.unmodifiableSet(new LinkedHashSet<>(document.indexedAttributes()));
+        if (indexed) {
+            new DocumentIndex(rootElement, indexedAttributes).prepare();
+        }
+    }
+
+    @Override
+    @Nonnull
+    public Element getRootElement() {
+        return rootElement;
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public String getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public URL getBaseUrl() {
+        return baseUrl;
+    }
+
+    @Override
+    List<String> dtds() {
+        return dtds;
+    }
+
+    @Override
+    boolean isIndexed() {
+        return indexed;
+    }
+
+    @Override
+    Collection<String> indexedAttributes() {
+        return indexedAttributes;
+    }
+
+    /**
+     * Returns this document if it was indexed by tag name when it was frozen
+     */
+    @Override
+    public Document indexTagNames() {
+        if (!indexed) {
+            throw frozen();
+        }
+        return this;
+    }
+
+    /**
+     * Returns this document if the attribute was indexed when it was frozen
+     */
+    @Override
+    public Document indexAttribute(String attributeName) {
+        if (!indexedAttributes.contains(attributeName)) {
+            throw frozen();
+        }
+        return this;
+    }
+
+    @Override
+    public Document freeze() {
+        return this;
+    }
+
+    @Override
+    public boolean isFrozen() {
+        return true;
+    }
+
+    @Override
+    public void setRootElement(Element rootElement) {
+        throw frozen();
+    }
+
+    @Override
+    public void setVersion(String version) {
+        throw frozen();
+    }
+
+    @Override
+    public void setEncoding(String encoding) {
+        throw frozen();
+    }
+
+    @Override
+    public void setBaseUrl(URL baseUrl) {
+        throw frozen();
+    }
+
+    @Override
+    public void addDTD(String dtdString) {
+        throw frozen();
+    }
+
+    private UnsupportedOperationException frozen() {
+        return new UnsupportedOperationException("Can't modify frozen document " + this);
+    }
+
+}
@@ -18,14 +18,14 @@ public class IntentedWriterXmlVisitor extends WriterXmlVisitor implements XmlVis
 
     @Override
     public void visitElement(Element element) throws IOException {
-        if (element.children().isEmpty()) {
-            writer.write(currentIndent + "<" + element.printTag() + printNamespaces(element.getNamespaces()) + element.printAttributes() + " />" + Document.LINE_SEPARATOR);
+        if (element.childNodes().isEmpty()) {
+            writer.write(currentIndent + "<" + element.printTag() + printNamespaces(element.declaredNamespaces()) + element.printAttributes() + " />" + Document.LINE_SEPARATOR);
         } else if (element.elements().isEmpty()) {
-            writer.write(currentIndent + "<" + element.printTag() + printNamespaces(element.getNamespaces()) + element.printAttributes() + ">");
+            writer.write(currentIndent + "<" + element.printTag() + printNamespaces(element.declaredNamespaces()) + element.printAttributes() + ">");
             visitChildren(element);
             writer.write("</" + element.printTag() + ">" + Document.LINE_SEPARATOR);
         } else {
-            writer.write(currentIndent + "<" + element.printTag() + printNamespaces(element.getNamespaces()) + element.printAttributes() + ">" + Document.LINE_SEPARATOR);
+            writer.write(currentIndent + "<" + element.printTag() + printNamespaces(element.declaredNamespaces()) + element.printAttributes() + ">" + Document.LINE_SEPARATOR);
             visitChildren(element);
             writer.write(currentIndent + "</" + element.printTag() + ">" + Document.LINE_SEPARATOR);
         }
@@ -44,10 +44,10 @@ public class IntentedWriterXmlVisitor extends WriterXmlVisitor implements XmlVis
     }
 
     private void visitChildren(Element element) throws IOException {
-        printedNamespacesStack.push(element.getNamespaces());
+        printedNamespacesStack.push(element.declaredNamespaces());
         String oldIndent = currentIndent;
         currentIndent += indentation;
-        for (Node child : element.children()) {
+        for (Node child : element.childNodes()) {
             child.visit(this);
         }
         currentIndent = oldIndent;
@@ -2,8 +2,15 @@ package org.eaxy;
 
 public class MalformedXMLException extends RuntimeException {
 
+    private final int lineNumber;
+
     public MalformedXMLException(String message, int lineNumber) {
         super(message + " on line " + lineNumber);
+        this.lineNumber = lineNumber;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
     }
 
 }
@@ -0,0 +1,155 @@
+package org.eaxy;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical {@link QualifiedName} and {@link Namespace} instances for the names read
+ * by the parsers. A document typically repeats a few hundred names in millions of
+ * elements and attributes, which will then all share the same few hundred objects.
+ * The local names and prefixes are interned, so comparing them with string
+ * constants, as the tag name filters do, usually succeeds on identity.
+ *
+ * <p>Each parse uses its own table unless one is given with {@link ParseOptions#names(NameTable)}.
+ * Tables created with the public constructor can be shared by parsers on several threads,
+ * and let go of names when they are no longer used by any element.
+ */
+public class NameTable {
+
+    private static class Key {
+        private String uri;
+        private String localName;
+        private String prefix;
+        private int hashCode;
+
+        Key set(String uri, String localName, String prefix) {
+            this.uri = uri;
+            this.localName = localName;
+            this.prefix = prefix;
+            this.hashCode = 31 * (31 * hash(uri) + hash(localName)) + hash(prefix);
+            return this;
+        }
+
+        private static int hash(String s) {
+            return s != null ? s.hashCode() : 0;
+        }
+
+        Key copy() {
+            return new Key().set(uri, localName, prefix);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return hashCode == other.hashCode && Objects.equals(uri, other.uri)
+                    && Objects.equals(localName, other.localName) && Objects.equals(prefix, other.prefix);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static class Entry extends WeakReference<Object> {
+        private final Key key;
+
+        Entry(Key key, Object value, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    private final boolean shared;
+    private final Map<Key, Object> entries;
+    private final ReferenceQueue<Object> released = new ReferenceQueue<>();
+    private final Key lookup = new Key();
+    private final ThreadLocal<Key> lookups = ThreadLocal.withInitial(Key::new);
+
+    public NameTable() {
+        this(true);
+    }
+
+    NameTable(boolean shared) {
+        this.shared = shared;
+        this.entries = shared ? new ConcurrentHashMap<>() : new HashMap<>();
+    }
+
+    /**
+     * Returns the canonical Namespace for the uri and prefix
+     */
+    Namespace namespace(String uri, String prefix) {
+        Key key = key(uri, null, prefix);
+        Object namespace = get(key);
+        if (namespace == null) {
+            namespace = put(key, new Namespace(uri, prefix != null ? prefix.intern() : null));
+        }
+        return (Namespace) namespace;
+    }
+
+    /**
+     * Returns the canonical QualifiedName. An empty or null uri means no namespace.
+     */
+    QualifiedName name(String uri, String localName, String prefix) {
+        if (uri != null && uri.isEmpty()) {
+            uri = null;
+        }
+        if (prefix != null && prefix.isEmpty()) {
+            prefix = null;
+        }
+        Key key = key(uri, localName, prefix);
+        Object name = get(key);
+        if (name == null) {
+            Namespace namespace = uri != null ? namespace(uri, prefix) : Namespace.NO_NAMESPACE;
+            name = put(key(uri, localName, prefix), new QualifiedName(namespace, localName.intern()));
+        }
+        return (QualifiedName) name;
+    }
+
+    private Key key(String uri, String localName, String prefix) {
+        return (shared ? lookups.get() : lookup).set(uri, localName, prefix);
+    }
+
+    private Object get(Key key) {
+        Object value = entries.get(key);
+        return shared && value != null ? ((Entry) value).get() : value;
+    }
+
+    private Object put(Key key, Object value) {
+        if (!shared) {
+            entries.put(key.copy(), value);
+            return value;
+        }
+        removeReleased();
+        Key entryKey = key.copy();
+        Entry entry = new Entry(entryKey, value, released);
+        while (true) {
+            Object existing = entries.putIfAbsent(entryKey, entry);
+            if (existing == null) {
+                return value;
+            }
+            Object existingValue = ((Entry) existing).get();
+            if (existingValue != null) {
+                return existingValue;
+            }
+            entries.remove(entryKey, existing);
+        }
+    }
+
+    private void removeReleased() {
+        Entry entry;
+        while ((entry = (Entry) released.poll()) != null) {
+            entries.remove(entry.key, entry);
+        }
+    }
+
+    int size() {
+        removeReleased();
+        return entries.size();
+    }
+
+}
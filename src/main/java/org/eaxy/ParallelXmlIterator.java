@@ -0,0 +1,254 @@
+package org.eaxy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+
+import javax.annotation.Nullable;
+
+/**
+ * Builds the elements matching a query on the threads of a {@link ForkJoinPool}.
+ * The calling thread only scans the file for where each matching element starts
+ * and ends, skipping the content with {@link XmlTokenizer#skipElement()}, and
+ * hands batches of these byte ranges to the pool. Each range is parsed with the
+ * namespaces declared by the ancestors of the element in scope.
+ *
+ * <p>At most two batches per thread in the pool are parsed or waiting to be
+ * returned at any time, so memory use doesn't depend on the size of the file.
+ */
+final class ParallelXmlIterator extends XmlIterator {
+
+    private static final int BATCH_ELEMENTS = 256;
+
+    private static final long BATCH_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final XmlTokenizer tokenizer;
+    private final ForkJoinPool pool;
+    private final boolean ordered;
+    private final ParseOptions options;
+    private final int maxRunning;
+
+    /** The batches that have been submitted and not returned yet, in document order */
+    private final Deque<ForkJoinTask<List<Element>>> pending = new ArrayDeque<>();
+    /** The batches that are done, in the order they were done, when not ordered */
+    private final BlockingQueue<ForkJoinTask<List<Element>>> completed = new LinkedBlockingQueue<>();
+
+    private Batch batch = new Batch();
+    private boolean endOfDocument;
+    private Iterator<Element> current = Collections.emptyIterator();
+
+    private int namespacesVersion;
+    private List<Namespace> namespaces = Collections.emptyList();
+
+    private ParallelXmlIterator(FileChannel channel, XmlTokenizer tokenizer, ElementQuery query, ParseOptions options) {
+        super(tokenizer, query, false);
+        this.channel = channel;
+        this.tokenizer = tokenizer;
+        this.pool = options.parallelPool();
+        this.ordered = options.isOrdered();
+        this.options = options;
+        this.maxRunning = 2 * pool.getParallelism();
+    }
+
+    static ParallelXmlIterator open(Path path, ElementQuery query, ParseOptions options) throws IOException {
+        if (options.parser() != ParseOptions.Parser.NATIVE || path.toString().endsWith(".gz")) {
+            throw new IllegalArgumentException("Parallel parsing requires the native parser and an uncompressed file, was "
+                    + options + " for " + path);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        XmlTokenizer tokenizer = XmlTokenizer.map(channel, XmlTokenizer.MAPPED_WINDOW_SIZE).names(options.names());
+        return new ParallelXmlIterator(channel, tokenizer, query, options);
+    }
+
+    /**
+     * Predicates on the children are decided when the element is parsed in the pool,
+     * so the element is dropped there if it doesn't match
+     */
+    @Override
+    boolean readMatch(Element element, @Nullable ContentMatcher content) {
+        long start = tokenizer.getEventOffset();
+        tokenizer.skipElement();
+        long end = tokenizer.getByteOffset();
+        if (batch.size > 0 && end - batch.starts[0] > BATCH_BYTES) {
+            submit();
+        }
+        batch.add(start, end, inheritedNamespaces(), content);
+        if (batch.size == BATCH_ELEMENTS) {
+            submit();
+        }
+        return true;
+    }
+
+    /**
+     * The namespaces declared by the ancestors of the matching element. Siblings share
+     * the same list.
+     */
+    private List<Namespace> inheritedNamespaces() {
+        if (namespaceVersion() != namespacesVersion) {
+            namespacesVersion = namespaceVersion();
+            namespaces = inScopeNamespaces();
+        }
+        return namespaces;
+    }
+
+    private void submit() {
+        if (batch.size == 0) {
+            return;
+        }
+        final Batch work = batch;
+        batch = new Batch();
+        ForkJoinTask<List<Element>> task = new RecursiveTask<List<Element>>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected List<Element> compute() {
+                try {
+                    return work.parse();
+                } finally {
+                    if (!ordered && !isCancelled()) {
+                        completed.add(this);
+                    }
+                }
+            }
+        };
+        pending.add(task);
+        pool.execute(task);
+    }
+
+    @Override
+    boolean isOrdered() {
+        return ordered;
+    }
+
+    @Override
+    public XmlCheckpoint checkpoint() {
+        throw new UnsupportedOperationException("Checkpoints are not supported with parallel parsing");
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            while (!endOfDocument && pending.size() < maxRunning) {
+                if (nextMatchingElement() == null) {
+                    endOfDocument = true;
+                    submit();
+                }
+            }
+            if (pending.isEmpty()) {
+                close();
+                return false;
+            }
+            ForkJoinTask<List<Element>> task;
+            if (ordered) {
+                task = pending.remove();
+            } else {
+                task = takeCompleted();
+                pending.remove(task);
+            }
+            current = task.join().iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Element next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    private ForkJoinTask<List<Element>> takeCompleted() {
+        try {
+            return completed.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for parsed elements", e);
+        }
+    }
+
+    /**
+     * Closes the file and cancels the batches that haven't been returned, ordered or not
+     */
+    @Override
+    public void close() {
+        for (ForkJoinTask<List<Element>> task : pending) {
+            task.cancel(false);
+        }
+        pending.clear();
+        completed.clear();
+        current = Collections.emptyIterator();
+        endOfDocument = true;
+        super.close();
+    }
+
+    /**
+     * The byte ranges of matching elements which are close together in the file, so
+     * they can be parsed from a single memory mapping. Mapping the batch instead of
+     * reading it into the heap also means that the tokenizer only ever sees one kind of
+     * {@link ByteBuffer}, which keeps its calls to {@link ByteBuffer#get(int)} cheap.
+     */
+    private class Batch {
+        private long[] starts = new long[BATCH_ELEMENTS];
+        private long[] ends = new long[BATCH_ELEMENTS];
+        private final List<List<Namespace>> namespaces = new ArrayList<>();
+        private final List<ContentMatcher> contents = new ArrayList<>();
+        private int size;
+
+        void add(long start, long end, List<Namespace> inheritedNamespaces, @Nullable ContentMatcher content) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            namespaces.add(inheritedNamespaces);
+            contents.add(content);
+            size++;
+        }
+
+        List<Element> parse() {
+            long offset = starts[0];
+            XmlTokenizer tokenizer = XmlTokenizer.fragment(map(offset, ends[size - 1]), ParallelXmlIterator.this.tokenizer.isLatin1())
+                    .names(options.names());
+            XmlScanner scanner = options.filter(tokenizer);
+            List<Element> elements = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                tokenizer.range((int) (starts[i] - offset), (int) (ends[i] - offset), namespaces.get(i));
+                scanner.next();
+                Element element = StaxReader.readElement(scanner);
+                if (readSubtree(scanner, element, options.projection(), contents.get(i))) {
+                    elements.add(element);
+                }
+            }
+            return elements;
+        }
+
+        private ByteBuffer map(long start, long end) {
+            try {
+                return channel.map(MapMode.READ_ONLY, start, end - start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+package org.eaxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Settings for reading documents with {@link Xml#read(java.net.URL, ParseOptions)}
+ * and streaming them with {@link ElementQuery#iterate(java.net.URL, ParseOptions)}.
+ */
+public class ParseOptions {
+
+    public enum Parser {
+        /** Parse with the javax.xml.stream implementation on the classpath */
+        STAX,
+        /** Parse with eaxy's own tokenizer, directly from the bytes of the input */
+        NATIVE
+    }
+
+    private Parser parser = Parser.STAX;
+    private ForkJoinPool parallelPool;
+    private ForkJoinPool inflatePool;
+    private boolean ordered = true;
+    private int prefetch;
+    private NameTable names;
+    private boolean ignoreWhitespace;
+    private final List<StreamingMatcher> projectedPaths = new ArrayList<>();
+    private StreamingMatcher projection;
+
+    public static ParseOptions defaults() {
+        return new ParseOptions();
+    }
+
+    public static ParseOptions nativeParser() {
+        return new ParseOptions().parser(Parser.NATIVE);
+    }
+
+    public Parser parser() {
+        return parser;
+    }
+
+    public ParseOptions parser(Parser parser) {
+        this.parser = Objects.nonnull(parser, "parser");
+        return this;
+    }
+
+    /**
+     * Build the elements returned by {@link ElementQuery#iterate(Path, ParseOptions)} on the
+     * common fork join pool. Requires the native parser and an uncompressed file.
+     */
+    public ParseOptions parallel() {
+        return parallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Build the elements returned by {@link ElementQuery#iterate(Path, ParseOptions)} on the
+     * threads of the pool. Requires the native parser and an uncompressed file.
+     */
+    public ParseOptions parallel(ForkJoinPool pool) {
+        this.parallelPool = Objects.nonnull(pool, "pool");
+        return this;
+    }
+
+    ForkJoinPool parallelPool() {
+        return parallelPool;
+    }
+
+    /**
+     * With <code>ordered(false)</code>, elements that are parsed in parallel are returned as soon
+     * as they are ready instead of in document order.
+     */
+    public ParseOptions ordered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Inflate gzip input on a background thread, and the members of bgzip files in parallel
+     * on the common fork join pool, so the parser only waits for the inflater when it's faster.
+     */
+    public ParseOptions parallelInflate() {
+        return parallelInflate(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Inflate gzip input on a background thread, and the members of bgzip files in parallel
+     * on the threads of the pool. The thread stops when the document is closed, so an
+     * iteration that stops before the end should be closed with {@link XmlIterable#close()}.
+     */
+    public ParseOptions parallelInflate(ForkJoinPool pool) {
+        this.inflatePool = Objects.nonnull(pool, "pool");
+        return this;
+    }
+
+    /**
+     * Parse with {@link ElementQuery#iterate} on a background thread, which stays up to
+     * <code>depth</code> matching elements ahead of the consumer. 0 parses on the consumer's thread.
+     */
+    public ParseOptions prefetch(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Prefetch depth can't be negative, was " + depth);
+        }
+        this.prefetch = depth;
+        return this;
+    }
+
+    public int prefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Use the same canonical names for all documents parsed with these options, instead of
+     * a new table for each parse
+     */
+    public ParseOptions names(NameTable names) {
+        this.names = Objects.nonnull(names, "names");
+        return this;
+    }
+
+    /**
+     * The shared name table, or a new one for a single parse
+     */
+    NameTable names() {
+        return names != null ? names : new NameTable(false);
+    }
+
+    /**
+     * Drop text that is only whitespace, like the indentation of pretty printed documents,
+     * and join adjacent text into a single node. Whitespace between the elements of mixed
+     * content is dropped too, so this is meant for data rather than markup.
+     */
+    public ParseOptions ignoreWhitespace(boolean ignoreWhitespace) {
+        this.ignoreWhitespace = ignoreWhitespace;
+        return this;
+    }
+
+    public boolean isIgnoreWhitespace() {
+        return ignoreWhitespace;
+    }
+
+    /**
+     * Only build the descendants at the path, relative to each element returned by
+     * {@link ElementQuery#iterate}, along with their ancestors. Can be called several
+     * times to build the descendants at each of the paths. The content of all other
+     * elements is skipped, and so is the text of the ancestors, which only contain the
+     * elements leading to the projected descendants.
+     */
+    public ParseOptions project(Object... relativePath) {
+        StreamingMatcher path = ElementFilters.streamingMatcher(ElementFilters.create(relativePath));
+        if (path == null) {
+            throw new IllegalArgumentException("Can't project " + Arrays.toString(relativePath)
+                    + ", only element filters and \"...\" are supported");
+        }
+        projectedPaths.add(path);
+        projection = StreamingMatcher.union(projectedPaths);
+        return this;
+    }
+
+    /**
+     * The descendants to build in the elements returned by iterate, or null to build all
+     */
+    StreamingMatcher projection() {
+        return projection;
+    }
+
+    XmlScanner filter(XmlScanner scanner) {
+        return ignoreWhitespace ? new TextCoalescingScanner(scanner) : scanner;
+    }
+
+    XmlScanner createScanner(InputStream inputStream) {
+        if (parser == Parser.NATIVE) {
+            return filter(new XmlTokenizer(inputStream).names(names()));
+        }
+        return filter(StaxScanner.create(inputStream).names(names()));
+    }
+
+    /**
+     * Memory maps the file for the native parser, unless it's compressed
+     */
+    XmlScanner createScanner(Path path) throws IOException {
+        boolean compressed = path.toString().endsWith(".gz");
+        if (parser == Parser.NATIVE && !compressed) {
+            return filter(XmlTokenizer.map(path).names(names()));
+        }
+        InputStream inputStream = Files.newInputStream(path);
+        if (compressed) {
+            inputStream = decompress(inputStream);
+        }
+        if (parser == Parser.NATIVE) {
+            return filter(new XmlTokenizer(inputStream).names(names()));
+        }
+        return filter(StaxScanner.open(inputStream).names(names()));
+    }
+
+    /**
+     * Inflates gzip input on the parser's thread, or in the background with {@link #parallelInflate()}
+     */
+    InputStream decompress(InputStream inputStream) throws IOException {
+        if (inflatePool != null) {
+            return new PrefetchingGzipInputStream(inputStream, inflatePool);
+        }
+        return new GZIPInputStream(inputStream);
+    }
+
+    XmlScanner createScanner(Reader reader) {
+        if (parser == Parser.NATIVE) {
+            throw new IllegalArgumentException("The native parser reads bytes - use a File, URL or InputStream instead of a Reader");
+        }
+        return filter(StaxScanner.create(reader).names(names()));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{parser=" + parser
+                + (ignoreWhitespace ? ",ignoreWhitespace" : "")
+                + (projection != null ? ",project=" + projection : "")
+                + (prefetch > 0 ? ",prefetch=" + prefetch : "")
+                + (inflatePool != null ? ",parallelInflate=" + inflatePool.getParallelism() : "")
+                + (parallelPool != null ? ",parallel=" + parallelPool.getParallelism() + ",ordered=" + ordered : "") + "}";
+    }
+
+}
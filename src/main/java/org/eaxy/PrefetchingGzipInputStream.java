@@ -0,0 +1,287 @@
+package org.eaxy;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates a gzip stream on a background thread, which stays a bounded number of
+ * chunks ahead of the reader, so the parser doesn't wait for the inflater.
+ *
+ * <p>Files in the blocked gzip format written by bgzip, where each member records its
+ * compressed size in the header, are split into batches of members which are inflated
+ * in parallel on a fork join pool. Other files, including the concatenated members
+ * written by pigz, can only be split by inflating them, so the background thread
+ * inflates them itself.
+ *
+ * <p>The thread is a daemon thread which stops when the stream is closed. Used when
+ * {@link ParseOptions#parallelInflate(ForkJoinPool)} is set.
+ */
+class PrefetchingGzipInputStream extends InputStream {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private static final int BATCH_BYTES = 1 << 20;
+
+    private static final int HEADER_SIZE = 12, TRAILER_SIZE = 8, FEXTRA = 4;
+
+    private static final byte[] END = new byte[0];
+
+    private final BufferedInputStream compressed;
+    private final ForkJoinPool pool;
+    private final BlockingQueue<CompletableFuture<byte[]>> chunks;
+    private final Thread thread;
+
+    private byte[] chunk = new byte[0];
+    private int pos;
+
+    PrefetchingGzipInputStream(InputStream compressed, ForkJoinPool pool) {
+        this.compressed = new BufferedInputStream(compressed, 1 << 16);
+        this.pool = pool;
+        this.chunks = new ArrayBlockingQueue<>(Math.max(2 * pool.getParallelism(), 4));
+        this.thread = new Thread(this::prefetch, "eaxy-gunzip-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void prefetch() {
+        try {
+            try {
+                List<byte[]> batch;
+                while (!(batch = readBlocks()).isEmpty()) {
+                    List<byte[]> blocks = batch;
+                    chunks.put(CompletableFuture.supplyAsync(() -> inflateBlocks(blocks), pool));
+                }
+                if (!isEndOfInput()) {
+                    inflateRest();
+                }
+                chunks.put(CompletableFuture.completedFuture(END));
+            } catch (IOException | RuntimeException e) {
+                CompletableFuture<byte[]> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                chunks.put(failed);
+            }
+        } catch (InterruptedException e) {
+            // Closed by the reader
+        }
+    }
+
+    /**
+     * Reads the blocked gzip members up to about {@link #BATCH_BYTES} of compressed input,
+     * and stops before the first member which doesn't say how long it is
+     */
+    private List<byte[]> readBlocks() throws IOException {
+        List<byte[]> blocks = new ArrayList<>();
+        int size = 0;
+        while (size < BATCH_BYTES) {
+            compressed.mark(HEADER_SIZE + 0xffff);
+            int blockSize = readBlockSize();
+            compressed.reset();
+            if (blockSize < 0) {
+                break;
+            }
+            byte[] block = new byte[blockSize];
+            readFully(block);
+            blocks.add(block);
+            size += blockSize;
+        }
+        return blocks;
+    }
+
+    /**
+     * The total size of the member from the BSIZE field of the header, or -1 if the
+     * header has no BSIZE
+     */
+    private int readBlockSize() throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        if (readUpTo(header) < HEADER_SIZE
+                || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8 || header[3] != FEXTRA) {
+            return -1;
+        }
+        byte[] extra = new byte[readShort(header, 10)];
+        if (readUpTo(extra) < extra.length) {
+            return -1;
+        }
+        for (int i = 0; i + 4 <= extra.length; i += 4 + readShort(extra, i + 2)) {
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && readShort(extra, i + 2) == 2 && i + 6 <= extra.length) {
+                return readShort(extra, i + 4) + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void readFully(byte[] bytes) throws IOException {
+        if (readUpTo(bytes) < bytes.length) {
+            throw new EOFException("Unexpected end of gzip input");
+        }
+    }
+
+    /**
+     * Reads until the array is full or the input ends, and returns the number of bytes read
+     */
+    private int readUpTo(byte[] bytes) throws IOException {
+        int read = 0;
+        int count;
+        while (read < bytes.length && (count = compressed.read(bytes, read, bytes.length - read)) >= 0) {
+            read += count;
+        }
+        return read;
+    }
+
+    private boolean isEndOfInput() throws IOException {
+        compressed.mark(1);
+        boolean end = compressed.read() < 0;
+        compressed.reset();
+        return end;
+    }
+
+    private static byte[] inflateBlocks(List<byte[]> blocks) {
+        int size = 0;
+        for (byte[] block : blocks) {
+            size += readInt(block, block.length - 4);
+        }
+        byte[] result = new byte[size];
+        int offset = 0;
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            for (byte[] block : blocks) {
+                int dataStart = HEADER_SIZE + readShort(block, 10);
+                int blockLength = readInt(block, block.length - 4);
+                inflater.reset();
+                inflater.setInput(block, dataStart, block.length - TRAILER_SIZE - dataStart);
+                int inflated = 0;
+                while (inflated < blockLength && !inflater.finished()) {
+                    int count = inflater.inflate(result, offset + inflated, blockLength - inflated);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += count;
+                }
+                crc.reset();
+                crc.update(result, offset, inflated);
+                if (inflated != blockLength || (int) crc.getValue() != readInt(block, block.length - TRAILER_SIZE)) {
+                    throw new UncheckedIOException(new ZipException("Corrupt gzip member"));
+                }
+                offset += blockLength;
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new ZipException(e.getMessage()));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Inflates the rest of the input, one member after the other
+     */
+    private void inflateRest() throws IOException, InterruptedException {
+        InputStream gzip = new GZIPInputStream(compressed, 1 << 16);
+        while (true) {
+            byte[] bytes = new byte[CHUNK_SIZE];
+            int read = 0;
+            int count;
+            while (read < bytes.length && (count = gzip.read(bytes, read, bytes.length - read)) >= 0) {
+                read += count;
+            }
+            if (read == 0) {
+                return;
+            }
+            chunks.put(CompletableFuture.completedFuture(read < bytes.length ? Arrays.copyOf(bytes, read) : bytes));
+        }
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return readShort(bytes, offset) | readShort(bytes, offset + 2) << 16;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? chunk[pos++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        } else if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, chunk.length - pos);
+        System.arraycopy(chunk, pos, bytes, offset, count);
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - pos;
+    }
+
+    private boolean fill() throws IOException {
+        while (pos == chunk.length) {
+            if (chunk == END) {
+                return false;
+            }
+            chunk = take();
+            pos = 0;
+        }
+        return true;
+    }
+
+    private byte[] take() throws IOException {
+        try {
+            return chunks.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for decompressed input");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw new IOException("Can't decompress gzip input: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Stops the thread and drops the chunks it has inflated. Closing the compressed input
+     * makes a thread which is waiting for it give up.
+     */
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        try {
+            compressed.close();
+        } finally {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            chunks.clear();
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package org.eaxy;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses on a background thread, which puts the matching elements in a bounded
+ * queue for the consumer. The parser thread waits when it's the given number
+ * of elements ahead, so memory use is still independent of the document size.
+ * Exceptions from parsing, like {@link MalformedXMLException} with its line number,
+ * are thrown to the consumer when it reaches the point where parsing failed.
+ * {@link #currentLineNumber()} and friends tell where the last returned element ended.
+ *
+ * <p>The parser thread is a daemon thread which ends at the end of the document or
+ * when the iterator is {@link #close() closed}. A consumer that stops before the end
+ * must close the iterator, or the thread will wait for it with the document open.
+ */
+class PrefetchingXmlIterator extends XmlIterator {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static class Prefetched {
+        private final Element element;
+        private final RuntimeException exception;
+        private final int lineNumber;
+        private final int columnNumber;
+        private final long characterOffset;
+
+        Prefetched(Element element, RuntimeException exception, int lineNumber, int columnNumber, long characterOffset) {
+            this.element = element;
+            this.exception = exception;
+            this.lineNumber = lineNumber;
+            this.columnNumber = columnNumber;
+            this.characterOffset = characterOffset;
+        }
+    }
+
+    private final BlockingQueue<Prefetched> queue;
+    private final Thread thread;
+    private Prefetched next;
+    private Prefetched current;
+
+    PrefetchingXmlIterator(final XmlScanner scanner, final ElementQuery query, final StreamingMatcher projection, int depth) {
+        super(scanner, query, false);
+        this.queue = new ArrayBlockingQueue<>(depth);
+        this.thread = new Thread(() -> prefetch(scanner, query, projection), "eaxy-prefetch-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void prefetch(XmlScanner scanner, ElementQuery query, StreamingMatcher projection) {
+        try {
+            try {
+                XmlIterator iterator = new XmlIterator(scanner, query, projection, true);
+                while (iterator.hasNext()) {
+                    // Where the element ended, before the iterator reads ahead to the next one
+                    int lineNumber = iterator.currentLineNumber();
+                    int columnNumber = iterator.currentColumnNumber();
+                    long characterOffset = scanner.getCharacterOffset();
+                    queue.put(new Prefetched(iterator.next(), null, lineNumber, columnNumber, characterOffset));
+                }
+                queue.put(new Prefetched(null, null, -1, -1, -1));
+            } catch (RuntimeException e) {
+                queue.put(new Prefetched(null, e, -1, -1, -1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for parsed elements", e);
+            }
+        }
+        if (next.element == null) {
+            close();
+        }
+        if (next.exception != null) {
+            throw next.exception;
+        }
+        return next.element != null;
+    }
+
+    @Override
+    public Element next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        current = next;
+        next = null;
+        return current.element;
+    }
+
+    /**
+     * Stops the parser thread and closes the document. Closing the document makes a
+     * parser thread which is waiting for input give up.
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+        super.close();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+    }
+
+    @Override
+    public XmlCheckpoint checkpoint() {
+        throw new UnsupportedOperationException("Checkpoints are not supported with prefetch");
+    }
+
+    @Override
+    public int currentLineNumber() {
+        return current != null ? current.lineNumber : 1;
+    }
+
+    @Override
+    public int currentColumnNumber() {
+        return current != null ? current.columnNumber : 1;
+    }
+
+    @Override
+    public int currentCharacterOffset() {
+        return current != null ? (int) current.characterOffset : 0;
+    }
+
+}
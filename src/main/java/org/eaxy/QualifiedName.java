@@ -72,6 +72,7 @@ public class QualifiedName {
 
     @Override
     public boolean equals(Object obj) {
+        if (obj == this) return true;
         if (!(obj instanceof QualifiedName)) return false;
         QualifiedName other = ((QualifiedName) obj);
         return Objects.equals(name, other.name) &&
@@ -94,6 +95,7 @@ public class QualifiedName {
     }
 
     public boolean matches(QualifiedName filter) {
+        if (filter == this) return true;
         if (!filter.hasNamespace() || !hasNamespace()) {
             return filter.name.equals(this.name);
         }
@@ -0,0 +1,123 @@
+package org.eaxy;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The queries for the most recently used paths of strings and positions, so a path
+ * like <code>find("a", "b.c", "x[y=z]")</code> is only parsed the first time it's
+ * used. The queries are immutable, so they are shared by all threads.
+ *
+ * <p>Lookups don't lock. Each entry remembers the last time it was used, where time
+ * only moves on when a path is added, and when the cache is full, the quarter of the
+ * entries that were used least recently are evicted together. Entries used at the
+ * same time are evicted in any order.
+ */
+final class QueryCache {
+
+    private static final class Key {
+        private final Object[] path;
+        private final int hashCode;
+
+        Key(Object[] path) {
+            this.path = path;
+            this.hashCode = Arrays.hashCode(path);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && hashCode == ((Key) obj).hashCode && Arrays.equals(path, ((Key) obj).path);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Entry {
+        private final ElementQuery query;
+        private volatile long lastUsed;
+
+        Entry(ElementQuery query, long lastUsed) {
+            this.query = query;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private final int maxSize;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+
+    QueryCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Only paths of strings and integers are cached, as other filters may not be
+     * immutable or may not be equal when they match the same elements
+     */
+    static boolean isCacheable(Object[] path) {
+        for (Object filter : path) {
+            if (!(filter instanceof String) && !(filter instanceof Integer)) {
+                return false;
+            }
+        }
+        return path.length > 0;
+    }
+
+    ElementQuery get(Object[] path, Function<Object[], ElementQuery> compiler) {
+        Entry entry = entries.get(new Key(path));
+        if (entry != null) {
+            long now = clock.get();
+            if (entry.lastUsed != now) {
+                entry.lastUsed = now;
+            }
+            return entry.query;
+        }
+        ElementQuery query = compiler.apply(path);
+        entries.put(new Key(path.clone()), new Entry(query, clock.incrementAndGet()));
+        if (entries.size() > maxSize) {
+            evict();
+        }
+        return query;
+    }
+
+    private synchronized void evict() {
+        if (entries.size() <= maxSize) {
+            return;
+        }
+        long[] lastUsed = new long[entries.size()];
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            if (count == lastUsed.length) break;
+            lastUsed[count++] = entry.lastUsed;
+        }
+        Arrays.sort(lastUsed, 0, count);
+        int excess = count - maxSize * 3 / 4;
+        long newest = lastUsed[excess - 1];
+        // Of the entries used at the newest time to evict, only evict as many as needed
+        int ties = excess;
+        while (ties > 0 && lastUsed[excess - ties] < newest) {
+            ties--;
+        }
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+            long used = iterator.next().lastUsed;
+            if (used < newest) {
+                iterator.remove();
+            } else if (used == newest && ties > 0) {
+                iterator.remove();
+                ties--;
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+}
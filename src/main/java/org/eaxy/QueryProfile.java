@@ -0,0 +1,375 @@
+package org.eaxy;
+
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A copy of a query that counts the work done for each step of the query, to find out
+ * why a query is slow. Created with {@link ElementQuery#profile()} and used like the
+ * query, or with {@link ElementSet#profile(Object...)}:
+ *
+ * <pre>
+ * QueryProfile profile = Xml.filter("...", "li.active").profile();
+ * List&lt;String&gt; texts = doc.find(profile).texts();
+ * log.info(profile.toJson());
+ * </pre>
+ *
+ * <p>For each step, the profile tells how many elements the filter of the step was
+ * checked against and how many of them matched, how many {@link ElementPath}s were
+ * created and how much time was spent. With {@link #iterate} the steps are matched
+ * against the start tags of the document, so no paths are created, and the time of a
+ * step is the time spent matching its filter. The time of reading the document is only
+ * part of the total.
+ *
+ * <p>The counts add up over all the searches and iterations with the profile. A profile
+ * is not thread safe, so it should be read after the search or iteration is done, and
+ * it doesn't count the work done for {@link ElementSet#parallelStream()}.
+ */
+public final class QueryProfile implements ElementQuery {
+
+    /**
+     * The work done for one step of the query
+     */
+    public static final class Step {
+        private final QueryProfile profile;
+        private final String query;
+        private final String kind;
+        @Nullable
+        private final ElementFilter filter;
+        long visited;
+        long matched;
+        long pathsCreated;
+        long nanos;
+
+        private Step(QueryProfile profile, String query, String kind, @Nullable ElementFilter filter) {
+            this.profile = profile;
+            this.query = query;
+            this.kind = kind;
+            this.filter = filter;
+        }
+
+        @Nonnull
+        public String getQuery() {
+            return query;
+        }
+
+        /**
+         * "child" for a step that matches the children of the elements found by the
+         * step before, "descendant" for a step after "...", or "position"
+         */
+        @Nonnull
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * The local name that {@link Document#indexTagNames()} can look up the
+         * elements of the step by, or null
+         */
+        @Nullable
+        public String getIndexedName() {
+            return filter != null ? filter.indexedName() : null;
+        }
+
+        /**
+         * The name and value of the attribute that {@link Document#indexAttribute(String)}
+         * can look up the elements of the step by, like <code>id=main</code>, or null
+         */
+        @Nullable
+        public String getIndexedAttribute() {
+            Attribute attribute = filter != null ? filter.indexedAttribute() : null;
+            return attribute != null ? attribute.getKey().print() + "=" + attribute.getValue() : null;
+        }
+
+        /**
+         * True if {@link ElementQuery#iterate} can match the step without building the elements
+         */
+        public boolean isMatchedOnName() {
+            return filter != null && filter.matchesOnName();
+        }
+
+        /**
+         * The number of elements the filter of the step was checked against
+         */
+        public long getVisited() {
+            return visited;
+        }
+
+        /**
+         * The number of elements that matched the filter of the step, or for a position,
+         * the number of elements found
+         */
+        public long getMatched() {
+            return matched;
+        }
+
+        public long getPathsCreated() {
+            return pathsCreated;
+        }
+
+        /**
+         * The time spent in this step, without the time spent in the steps it
+         * asked for elements
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Measures the matches of the step as they are found
+         */
+        Iterator<ElementPath> measure(Iterator<ElementPath> paths) {
+            return new Iterator<ElementPath>() {
+                private int createdPaths;
+
+                @Override
+                public boolean hasNext() {
+                    long start = profile.enter();
+                    try {
+                        return paths.hasNext();
+                    } finally {
+                        profile.exit(start, Step.this);
+                        countPaths();
+                    }
+                }
+
+                @Override
+                public ElementPath next() {
+                    long start = profile.enter();
+                    try {
+                        ElementPath result = paths.next();
+                        if (filter == null) {
+                            matched++;
+                        }
+                        return result;
+                    } finally {
+                        profile.exit(start, Step.this);
+                        countPaths();
+                    }
+                }
+
+                private void countPaths() {
+                    if (paths instanceof ElementPathIterator) {
+                        int count = ((ElementPathIterator) paths).createdPaths();
+                        pathsCreated += count - createdPaths;
+                        createdPaths = count;
+                    }
+                }
+            };
+        }
+
+        private void toJson(StringBuilder json) {
+            json.append("{\"query\":").append(quote(query))
+                .append(",\"kind\":").append(quote(kind))
+                .append(",\"indexedName\":").append(quote(getIndexedName()))
+                .append(",\"indexedAttribute\":").append(quote(getIndexedAttribute()))
+                .append(",\"matchedOnName\":").append(isMatchedOnName())
+                .append(",\"visited\":").append(visited)
+                .append(",\"matched\":").append(matched)
+                .append(",\"pathsCreated\":").append(pathsCreated)
+                .append(",\"nanos\":").append(nanos)
+                .append("}");
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder json = new StringBuilder();
+            toJson(json);
+            return json.toString();
+        }
+    }
+
+    /**
+     * Implemented by the parts of a profiled query that are the elements of a step
+     */
+    interface Profiled {
+        @Nullable
+        Step step();
+    }
+
+    private final String plan;
+    private final List<Step> steps = new ArrayList<>();
+    private final ElementQuery query;
+    private long results;
+    private long nanos;
+
+    /** The time spent by the steps that the steps being measured asked for elements */
+    private long[] innerNanos = new long[8];
+    private int depth;
+
+    QueryProfile(ElementQuery query) {
+        this.plan = query.toString();
+        this.query = ElementFilters.profile(query, this);
+    }
+
+    Step addStep(String query, String kind, @Nullable ElementFilter filter) {
+        Step step = new Step(this, query, kind, filter);
+        steps.add(step);
+        return step;
+    }
+
+    /**
+     * The query with the filters that count the work
+     */
+    ElementQuery query() {
+        return query;
+    }
+
+    /**
+     * The query as it was compiled, in the form printed by its <code>toString()</code>
+     */
+    @Nonnull
+    public String getPlan() {
+        return plan;
+    }
+
+    /**
+     * The steps in the order of the query
+     */
+    @Nonnull
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * The number of elements found by the searches and iterations
+     */
+    public long getResults() {
+        return results;
+    }
+
+    /**
+     * The total time spent finding the elements
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    private long enter() {
+        if (depth == innerNanos.length) {
+            innerNanos = Arrays.copyOf(innerNanos, depth * 2);
+        }
+        innerNanos[depth++] = 0;
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time since the start, without the time of the inner steps, to the step
+     */
+    private void exit(long start, @Nullable Step step) {
+        long elapsed = System.nanoTime() - start;
+        long inner = innerNanos[--depth];
+        if (depth > 0) {
+            innerNanos[depth - 1] += elapsed;
+        }
+        if (step != null) {
+            step.nanos += elapsed - inner;
+        } else {
+            nanos += elapsed;
+        }
+    }
+
+    /**
+     * Called by {@link XmlIterator} when it has looked for the next element
+     */
+    void streamed(boolean found, long elapsed) {
+        if (found) {
+            results++;
+        }
+        nanos += elapsed;
+    }
+
+    @Override @Nonnull
+    public ElementSet search(@Nonnull ElementSet elements) {
+        ElementSet result = query.search(elements);
+        Iterator<ElementPath> paths = result.pathIterator();
+        return result.nestedSet(this, new Iterator<ElementPath>() {
+            @Override
+            public boolean hasNext() {
+                long start = enter();
+                try {
+                    return paths.hasNext();
+                } finally {
+                    exit(start, null);
+                }
+            }
+
+            @Override
+            public ElementPath next() {
+                long start = enter();
+                try {
+                    ElementPath path = paths.next();
+                    results++;
+                    return path;
+                } finally {
+                    exit(start, null);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean matches(List<Element> path, int position) {
+        return query.matches(path, position);
+    }
+
+    @Override @Nonnull
+    public XmlIterable iterate(@Nonnull Reader reader) {
+        return XmlIterator.iterate(this, reader);
+    }
+
+    @Override @Nonnull
+    public XmlIterable iterate(@Nonnull URL url) {
+        return XmlIterator.iterate(this, url);
+    }
+
+    /**
+     * The plan, the totals and the counts of each step as a JSON object on a single line,
+     * for logging
+     */
+    @Nonnull
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"plan\":").append(quote(plan))
+            .append(",\"results\":").append(results)
+            .append(",\"nanos\":").append(nanos)
+            .append(",\"steps\":[");
+        for (int i = 0; i < steps.size(); i++) {
+            json.append(i > 0 ? "," : "");
+            steps.get(i).toJson(json);
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String quote(@Nullable String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append("\"").toString();
+    }
+
+    @Override
+    public String toString() {
+        return plan;
+    }
+
+}
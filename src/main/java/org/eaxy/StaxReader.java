@@ -4,29 +4,22 @@ import static org.eaxy.Xml.cdata;
 import static org.eaxy.Xml.comment;
 import static org.eaxy.Xml.text;
 
-import com.sun.org.apache.xerces.internal.impl.Constants;
-
 import java.io.InputStream;
 import java.io.Reader;
 import java.net.URL;
 import java.util.Stack;
 
-import javax.xml.namespace.QName;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 
 
-@SuppressWarnings("restriction")
 public class StaxReader implements XMLStreamConstants {
 
     private final Stack<Element> elementStack = new Stack<Element>();
-    private final XMLStreamReader streamReader;
+    private final XmlScanner streamReader;
     private final Document document;
     private Element rootElement = null;
 
-    private StaxReader(URL baseUrl, XMLStreamReader streamReader) {
+    private StaxReader(URL baseUrl, XmlScanner streamReader) {
         this.document = new Document(baseUrl);
         this.streamReader = streamReader;
         if (streamReader.getVersion() != null) {
@@ -37,36 +30,25 @@ public class StaxReader implements XMLStreamConstants {
         }
     }
 
-    private static XMLInputFactory getInputFactory() {
-        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
-        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
-        inputFactory.setProperty(Constants.ZEPHYR_PROPERTY_PREFIX + Constants.STAX_REPORT_CDATA_EVENT, Boolean.TRUE);
-        return inputFactory;
-    }
-
     public static Document read(Reader reader) {
-        try {
-            return new StaxReader(null, getInputFactory().createXMLStreamReader(reader)).doParse();
-        } catch (XMLStreamException e) {
-            throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
-        }
+        return read(StaxScanner.create(reader), null);
     }
 
     public static Document read(InputStream inputStream, URL resourceBase) {
-        try {
-            return new StaxReader(resourceBase, getInputFactory().createXMLStreamReader(inputStream)).doParse();
-        } catch (XMLStreamException e) {
-            throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
-        }
+        return read(StaxScanner.create(inputStream), resourceBase);
+    }
+
+    static Document read(XmlScanner scanner, URL resourceBase) {
+        return new StaxReader(resourceBase, scanner).doParse();
     }
 
-    private Document doParse() throws XMLStreamException {
+    private Document doParse() {
         while (streamReader.hasNext()) {
             streamReader.next();
 
             switch (streamReader.getEventType()) {
             case START_ELEMENT:
-                Element element = readElement();
+                Element element = readElement(streamReader, streamReader.getLineNumber());
 
                 if (!elementStack.isEmpty())
                     current().add(element);
@@ -112,22 +94,26 @@ public class StaxReader implements XMLStreamConstants {
         return elementStack.peek();
     }
 
-    private Element readElement() {
-        QName name = streamReader.getName();
-        Element element = new Element(toName(name), streamReader.getLocation().getLineNumber());
+    static Element readElement(XmlScanner streamReader, int lineNumber) {
+        return readContent(streamReader, new Element(streamReader.getName(), lineNumber));
+    }
+
+    /**
+     * Reads the element at the start tag without a line number
+     */
+    static Element readElement(XmlScanner streamReader) {
+        return readContent(streamReader, new Element(streamReader.getName()));
+    }
 
+    private static Element readContent(XmlScanner streamReader, Element element) {
         for (int i = 0; i < streamReader.getNamespaceCount(); i++) {
-            element.namespace(new Namespace(streamReader.getNamespaceURI(i), streamReader.getNamespacePrefix(i)));
+            element.namespace(streamReader.getNamespace(i));
         }
 
         for (int i = 0; i < streamReader.getAttributeCount(); i++) {
-            element.attr(toName(streamReader.getAttributeName(i)), streamReader.getAttributeValue(i));
+            element.attr(streamReader.getAttributeName(i), streamReader.getAttributeValue(i));
         }
         return element;
     }
 
-    static QualifiedName toName(QName name) {
-        return new QualifiedName(name.getNamespaceURI(), name.getLocalPart(), name.getPrefix());
-    }
-
 }
@@ -0,0 +1,176 @@
+package org.eaxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.sun.org.apache.xerces.internal.impl.Constants;
+
+@SuppressWarnings("restriction")
+class StaxScanner implements XmlScanner {
+
+    private final XMLStreamReader streamReader;
+    private final Closeable input;
+    private NameTable names = new NameTable(false);
+
+    StaxScanner(XMLStreamReader streamReader) {
+        this(streamReader, null);
+    }
+
+    private StaxScanner(XMLStreamReader streamReader, Closeable input) {
+        this.streamReader = streamReader;
+        this.input = input;
+    }
+
+    static XMLInputFactory getInputFactory() {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        inputFactory.setProperty(Constants.ZEPHYR_PROPERTY_PREFIX + Constants.STAX_REPORT_CDATA_EVENT, Boolean.TRUE);
+        return inputFactory;
+    }
+
+    static StaxScanner create(Reader reader) {
+        try {
+            return new StaxScanner(getInputFactory().createXMLStreamReader(reader));
+        } catch (XMLStreamException e) {
+            throw malformed(e);
+        }
+    }
+
+    static StaxScanner create(InputStream inputStream) {
+        try {
+            return new StaxScanner(getInputFactory().createXMLStreamReader(inputStream));
+        } catch (XMLStreamException e) {
+            throw malformed(e);
+        }
+    }
+
+    /**
+     * Reads from an input stream which will be closed with the scanner
+     */
+    static StaxScanner open(InputStream inputStream) {
+        try {
+            return new StaxScanner(getInputFactory().createXMLStreamReader(inputStream), inputStream);
+        } catch (XMLStreamException e) {
+            throw malformed(e);
+        }
+    }
+
+    StaxScanner names(NameTable names) {
+        this.names = names;
+        return this;
+    }
+
+    static MalformedXMLException malformed(XMLStreamException e) {
+        return new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
+    }
+
+    private QualifiedName toName(QName name) {
+        return names.name(name.getNamespaceURI(), name.getLocalPart(), name.getPrefix());
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            return streamReader.hasNext();
+        } catch (XMLStreamException e) {
+            throw malformed(e);
+        }
+    }
+
+    @Override
+    public int next() {
+        try {
+            return streamReader.next();
+        } catch (XMLStreamException e) {
+            throw malformed(e);
+        }
+    }
+
+    @Override
+    public int getEventType() {
+        return streamReader.getEventType();
+    }
+
+    @Override
+    public QualifiedName getName() {
+        return toName(streamReader.getName());
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        return streamReader.getNamespaceCount();
+    }
+
+    @Override
+    public Namespace getNamespace(int index) {
+        return names.namespace(streamReader.getNamespaceURI(index), streamReader.getNamespacePrefix(index));
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return streamReader.getAttributeCount();
+    }
+
+    @Override
+    public QualifiedName getAttributeName(int index) {
+        return toName(streamReader.getAttributeName(index));
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return streamReader.getAttributeValue(index);
+    }
+
+    @Override
+    public String getText() {
+        return streamReader.getText();
+    }
+
+    @Override
+    public String getVersion() {
+        return streamReader.getVersion();
+    }
+
+    @Override
+    public String getEncoding() {
+        return streamReader.getEncoding();
+    }
+
+    @Override
+    public int getLineNumber() {
+        return streamReader.getLocation().getLineNumber();
+    }
+
+    @Override
+    public int getColumnNumber() {
+        return streamReader.getLocation().getColumnNumber();
+    }
+
+    @Override
+    public long getCharacterOffset() {
+        return streamReader.getLocation().getCharacterOffset();
+    }
+
+    @Override
+    public void close() {
+        try {
+            streamReader.close();
+            if (input != null) {
+                input.close();
+            }
+        } catch (XMLStreamException e) {
+            throw malformed(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
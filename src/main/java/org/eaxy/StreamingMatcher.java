@@ -0,0 +1,249 @@
+package org.eaxy;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * Matches a path of {@link ElementFilter}s against the start tags read by
+ * {@link XmlIterator}, without building the elements that can't match. The path is
+ * run as an automaton over the open elements: the state of each element is the set
+ * of steps that its children can match next, kept as the bits of a long. Bit
+ * <code>k</code> is set when the element and its ancestors have matched the first
+ * <code>k</code> steps, and stays set in the descendants when step <code>k</code> is
+ * preceded by "...". Each start tag is matched from the state of its parent, so the
+ * cost doesn't depend on how deep the element is. An element whose state is
+ * {@link #NO_MATCH} can't have any matching descendants, so its content can be skipped.
+ *
+ * <p>Several paths can be matched at the same time with {@link #union(List)}, which
+ * gives each path its own range of bits, so {@link #matchingPath(long)} can tell which
+ * of them matched.
+ *
+ * <p>Filters that look at the children of the element, like {@link ElementFilters#hasChild(Object)},
+ * are matched on the start tag with {@link ElementFilter#matchesStartTag(Element)}, and
+ * decided on the children with {@link #contentMatch(long)}.
+ */
+final class StreamingMatcher {
+
+    static final long NO_MATCH = 0;
+
+    /** The longest path that fits in the states */
+    static final int MAX_STEPS = Long.SIZE - 1;
+
+    /** The filter for each bit of the states, with null for the bit of a complete path */
+    private final ElementFilter[] steps;
+    private final long rootState;
+    private final long descendantSteps;
+    private final long matchState;
+    /** The bit of the complete path for each of the paths of a union */
+    private final long[] pathMatchStates;
+    /** The bits of the complete paths whose last filter looks at the children */
+    private final long contentMatchStates;
+
+    /**
+     * @param descendantSteps the bits of the steps which can match any descendant, and
+     *   not only the children, of the element matching the previous step
+     */
+    StreamingMatcher(ElementFilter[] steps, long descendantSteps) {
+        this(Arrays.copyOf(steps, checkSteps(steps.length) + 1), 1L, descendantSteps, 1L << steps.length,
+                new long[] { 1L << steps.length });
+    }
+
+    private StreamingMatcher(ElementFilter[] steps, long rootState, long descendantSteps, long matchState, long[] pathMatchStates) {
+        this.steps = steps;
+        this.rootState = rootState;
+        this.descendantSteps = descendantSteps;
+        this.matchState = matchState;
+        this.pathMatchStates = pathMatchStates;
+        long contentMatchStates = 0;
+        for (long pathMatchState : pathMatchStates) {
+            int lastStep = Long.numberOfTrailingZeros(pathMatchState) - 1;
+            if (lastStep >= 0 && steps[lastStep].contentMatcher() != null) {
+                contentMatchStates |= pathMatchState;
+            }
+        }
+        this.contentMatchStates = contentMatchStates;
+    }
+
+    private static int checkSteps(int steps) {
+        if (steps > MAX_STEPS) {
+            throw new IllegalArgumentException("Can't match more than " + MAX_STEPS + " steps, was " + steps);
+        }
+        return steps;
+    }
+
+    /**
+     * Matches when any of the matchers match
+     */
+    static StreamingMatcher union(List<StreamingMatcher> matchers) {
+        ElementFilter[] steps = new ElementFilter[0];
+        long rootState = 0, descendantSteps = 0, matchState = 0;
+        long[] pathMatchStates = new long[0];
+        for (StreamingMatcher matcher : matchers) {
+            int shift = steps.length;
+            checkSteps(shift + matcher.steps.length - 1);
+            steps = Arrays.copyOf(steps, shift + matcher.steps.length);
+            System.arraycopy(matcher.steps, 0, steps, shift, matcher.steps.length);
+            rootState |= matcher.rootState << shift;
+            descendantSteps |= matcher.descendantSteps << shift;
+            matchState |= matcher.matchState << shift;
+            int paths = pathMatchStates.length;
+            pathMatchStates = Arrays.copyOf(pathMatchStates, paths + matcher.pathMatchStates.length);
+            for (int i = 0; i < matcher.pathMatchStates.length; i++) {
+                pathMatchStates[paths + i] = matcher.pathMatchStates[i] << shift;
+            }
+        }
+        return new StreamingMatcher(steps, rootState, descendantSteps, matchState, pathMatchStates);
+    }
+
+    /**
+     * The number of bits used by the states
+     */
+    int stepCount() {
+        return steps.length;
+    }
+
+    /**
+     * The state of the root element, which like in {@link ElementSet#find} is where the
+     * path starts, not the first step of the path
+     */
+    long rootState() {
+        return rootState;
+    }
+
+    /**
+     * The state of the element with the name <code>name</code> inside an element with the
+     * state <code>parentState</code>. The element is only built with <code>element</code>
+     * when a filter needs more than the name.
+     */
+    long childState(long parentState, QualifiedName name, Supplier<Element> element) {
+        long state = parentState & descendantSteps;
+        for (long remaining = parentState & ~matchState; remaining != 0; remaining &= remaining - 1) {
+            int step = Long.numberOfTrailingZeros(remaining);
+            ElementFilter filter = steps[step];
+            if (filter.canMatch(name) && (filter.matchesOnName() || filter.matchesStartTag(element.get()))) {
+                state |= 1L << (step + 1);
+            }
+        }
+        return state;
+    }
+
+    boolean isMatch(long state) {
+        return (state & matchState) != 0;
+    }
+
+    /**
+     * The position in the union of the first path that matches in the state, or -1 if none do
+     */
+    int matchingPath(long state) {
+        for (int i = 0; i < pathMatchStates.length; i++) {
+            if ((state & pathMatchStates[i]) != 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Decides which of the paths matching in the state the element matches, when the last
+     * filter of the first of them looks at the children, or returns null if it doesn't,
+     * so the first path matches on the start tag
+     */
+    @Nullable
+    ContentMatch contentMatch(long state) {
+        // The paths are in the order of their bits, so the lowest bit is the first path that matches
+        long matches = state & matchState;
+        if ((matches & -matches & contentMatchStates) == 0) {
+            return null;
+        }
+        int count = 0;
+        int[] paths = new int[pathMatchStates.length];
+        ContentMatcher[] matchers = new ContentMatcher[pathMatchStates.length];
+        for (int i = 0; i < pathMatchStates.length; i++) {
+            if ((state & pathMatchStates[i]) == 0) continue;
+            paths[count] = i;
+            matchers[count] = steps[Long.numberOfTrailingZeros(pathMatchStates[i]) - 1].contentMatcher();
+            if (matchers[count++] == null) break;
+        }
+        if (count == 0 || matchers[0] == null) {
+            return null;
+        }
+        return new ContentMatch(Arrays.copyOf(paths, count), Arrays.copyOf(matchers, count));
+    }
+
+    /**
+     * Decides on the children which of the paths that matched the start tag is the
+     * first to match the element
+     */
+    static final class ContentMatch implements ContentMatcher {
+        private final int[] paths;
+        /** The matcher of each path, with null for a path that matches on the start tag */
+        private final ContentMatcher[] matchers;
+        private final Boolean[] results;
+        private int matchingPath = -1;
+
+        private ContentMatch(int[] paths, ContentMatcher[] matchers) {
+            this.paths = paths;
+            this.matchers = matchers;
+            this.results = new Boolean[matchers.length];
+        }
+
+        @Override
+        public Boolean childRead(Element child) {
+            for (int i = 0; i < matchers.length; i++) {
+                if (matchers[i] != null && results[i] == null) {
+                    results[i] = matchers[i].childRead(child);
+                }
+            }
+            return decide(false);
+        }
+
+        @Override
+        public boolean contentEnded() {
+            return decide(true);
+        }
+
+        private Boolean decide(boolean ended) {
+            for (int i = 0; i < matchers.length; i++) {
+                Boolean result = matchers[i] == null ? Boolean.TRUE : results[i];
+                if (result == null) {
+                    if (!ended) return null;
+                    result = matchers[i].contentEnded();
+                }
+                if (result) {
+                    matchingPath = paths[i];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * The position in the union of the path the element matched, like {@link StreamingMatcher#matchingPath(long)}
+         */
+        int matchingPath() {
+            return matchingPath;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(getClass().getSimpleName()).append("{");
+        boolean startOfPath = true;
+        for (int i = 0; i < steps.length; i++) {
+            if (steps[i] == null) {
+                result.append(i < steps.length - 1 ? ", " : "");
+                startOfPath = true;
+                continue;
+            }
+            result.append(startOfPath ? "" : "/");
+            if ((descendantSteps & (1L << i)) != 0) {
+                result.append(".../");
+            }
+            result.append(steps[i]);
+            startOfPath = false;
+        }
+        return result.append("}").toString();
+    }
+
+}
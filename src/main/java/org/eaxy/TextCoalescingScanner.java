@@ -0,0 +1,150 @@
+package org.eaxy;
+
+/**
+ * Reports each run of adjacent CHARACTERS and SPACE events from the underlying scanner
+ * as a single CHARACTERS event, and drops the runs that are only whitespace. To find the
+ * end of a run, the scanner reads the following event, which it reports next.
+ */
+class TextCoalescingScanner implements XmlScanner {
+
+    private final XmlScanner scanner;
+    private int eventType = START_DOCUMENT;
+    private String text;
+    private boolean pending;
+
+    TextCoalescingScanner(XmlScanner scanner) {
+        this.scanner = scanner;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pending || scanner.hasNext();
+    }
+
+    @Override
+    public int next() {
+        text = null;
+        if (pending) {
+            pending = false;
+            return eventType = scanner.getEventType();
+        }
+        int event = scanner.next();
+        while (event == CHARACTERS || event == SPACE) {
+            String first = scanner.getText();
+            event = scanner.next();
+            StringBuilder run = null;
+            while (event == CHARACTERS || event == SPACE) {
+                if (run == null) {
+                    run = new StringBuilder(first);
+                }
+                run.append(scanner.getText());
+                event = scanner.next();
+            }
+            String text = run != null ? run.toString() : first;
+            if (!isWhitespace(text)) {
+                this.text = text;
+                this.pending = true;
+                return eventType = CHARACTERS;
+            }
+        }
+        return eventType = event;
+    }
+
+    private static boolean isWhitespace(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != ' ' && c != '\n' && c != '\t' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public QualifiedName getName() {
+        return scanner.getName();
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        return scanner.getNamespaceCount();
+    }
+
+    @Override
+    public Namespace getNamespace(int index) {
+        return scanner.getNamespace(index);
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return scanner.getAttributeCount();
+    }
+
+    @Override
+    public QualifiedName getAttributeName(int index) {
+        return scanner.getAttributeName(index);
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return scanner.getAttributeValue(index);
+    }
+
+    @Override
+    public String getText() {
+        return text != null ? text : scanner.getText();
+    }
+
+    @Override
+    public String getVersion() {
+        return scanner.getVersion();
+    }
+
+    @Override
+    public String getEncoding() {
+        return scanner.getEncoding();
+    }
+
+    @Override
+    public int getLineNumber() {
+        return scanner.getLineNumber();
+    }
+
+    @Override
+    public int getColumnNumber() {
+        return scanner.getColumnNumber();
+    }
+
+    @Override
+    public long getCharacterOffset() {
+        return scanner.getCharacterOffset();
+    }
+
+    @Override
+    public long getEventOffset() {
+        return scanner.getEventOffset();
+    }
+
+    @Override
+    public long getByteOffset() {
+        return scanner.getByteOffset();
+    }
+
+    @Override
+    public void skipElement() {
+        scanner.skipElement();
+        text = null;
+        eventType = END_ELEMENT;
+    }
+
+    @Override
+    public void close() {
+        scanner.close();
+    }
+
+}
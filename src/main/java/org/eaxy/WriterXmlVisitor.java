@@ -43,12 +43,12 @@ public class WriterXmlVisitor implements XmlVisitor {
 
     @Override
     public void visitElement(Element element) throws IOException {
-        if (element.children().isEmpty()) {
-            writer.write("<" + element.printTag() + printNamespaces(element.getNamespaces()) + element.printAttributes() + " />");
+        if (element.childNodes().isEmpty()) {
+            writer.write("<" + element.printTag() + printNamespaces(element.declaredNamespaces()) + element.printAttributes() + " />");
         } else {
-            writer.write("<" + element.printTag() + printNamespaces(element.getNamespaces()) + element.printAttributes() + ">");
-            printedNamespacesStack.push(element.getNamespaces());
-            for (Node child : element.children()) {
+            writer.write("<" + element.printTag() + printNamespaces(element.declaredNamespaces()) + element.printAttributes() + ">");
+            printedNamespacesStack.push(element.declaredNamespaces());
+            for (Node child : element.childNodes()) {
                 child.visit(this);
             }
             printedNamespacesStack.pop();
@@ -7,6 +7,7 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.function.Function;
 import java.util.zip.GZIPInputStream;
@@ -148,14 +149,40 @@ public class Xml {
         return read(file.toURI().toURL());
     }
 
+    public static Document read(File file, ParseOptions options) throws IOException {
+        return read(file.toURI().toURL(), options);
+    }
+
+    /**
+     * Reads the file with the native parser, straight from the memory mapped file
+     */
+    public static Document read(Path path) throws IOException {
+        return read(path, ParseOptions.nativeParser());
+    }
+
+    public static Document read(Path path, ParseOptions options) throws IOException {
+        XmlScanner scanner = options.createScanner(path);
+        try {
+            return StaxReader.read(scanner, path.toUri().toURL());
+        } finally {
+            scanner.close();
+        }
+    }
+
     public static Document read(URL url) throws IOException {
+        return read(url, ParseOptions.defaults());
+    }
+
+    public static Document read(URL url, ParseOptions options) throws IOException {
         try (InputStream inputStream = url.openStream()) {
             if (inputStream == null) {
                 throw new IllegalArgumentException("Can't load " + url);
             } else if (url.getFile().endsWith(".gz")) {
-                return StaxReader.read(new GZIPInputStream(inputStream), url);
+                try (InputStream decompressed = options.decompress(inputStream)) {
+                    return StaxReader.read(options.createScanner(decompressed), url);
+                }
             } else {
-                return StaxReader.read(inputStream, url);
+                return StaxReader.read(options.createScanner(inputStream), url);
             }
         }
     }
@@ -172,6 +199,10 @@ public class Xml {
         return StaxReader.read(reader);
     }
 
+    public static Document read(Reader reader, ParseOptions options) throws IOException {
+        return StaxReader.read(options.createScanner(reader), null);
+    }
+
     public static Document fromDom(org.w3c.dom.Document document) {
         return DomTransformer.fromDom(document);
     }
@@ -0,0 +1,75 @@
+package org.eaxy;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where an {@link XmlIterator} was after it returned an element, so a later run can
+ * continue from there with {@link ElementQuery#iterate(java.nio.file.Path, ParseOptions, XmlCheckpoint)}
+ * instead of parsing the file from the start. The checkpoint records the byte offset
+ * after the element, along with the byte offsets of the start tags of the elements that
+ * were still open. These start tags are read again when resuming, which restores the
+ * namespaces in scope.
+ *
+ * <p>A checkpoint is only valid for the same file and query.
+ */
+public final class XmlCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long offset;
+    private final int lineNumber;
+    private final long[] ancestorOffsets;
+    private final String[] ancestorNames;
+
+    /**
+     * The arrays are shared between the checkpoints of elements with the same ancestors
+     * and are never changed
+     */
+    XmlCheckpoint(long offset, int lineNumber, long[] ancestorOffsets, String[] ancestorNames) {
+        this.offset = offset;
+        this.lineNumber = lineNumber;
+        this.ancestorOffsets = ancestorOffsets;
+        this.ancestorNames = ancestorNames;
+    }
+
+    /**
+     * The byte offset in the file right after the last returned element
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * The names, as written in the file, of the elements that were open, starting with
+     * the root element
+     */
+    public List<String> getAncestors() {
+        return Collections.unmodifiableList(Arrays.asList(ancestorNames));
+    }
+
+    int ancestorCount() {
+        return ancestorOffsets.length;
+    }
+
+    long ancestorOffset(int index) {
+        return ancestorOffsets[index];
+    }
+
+    String ancestorName(int index) {
+        return ancestorNames[index];
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{offset=" + offset + ",line=" + lineNumber
+                + ",ancestors=" + String.join("/", ancestorNames) + "}";
+    }
+
+}
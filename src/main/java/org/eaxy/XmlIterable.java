@@ -1,7 +1,56 @@
 package org.eaxy;
 
-public interface XmlIterable extends Iterable<Element> {
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The elements matching a query, read from the document as they are iterated.
+ * An iteration that stops before the end of the document should be closed, to close
+ * the document and stop the threads of {@link ParseOptions#prefetch(int)}:
+ *
+ * <pre>
+ * try (XmlIterable packages = Xml.filter("...", "package").iterate(path)) {
+ *     for (Element element : packages) {
+ *         if (...) break;
+ *     }
+ * }
+ * </pre>
+ */
+public interface XmlIterable extends Iterable<Element>, AutoCloseable {
 
     @Override
     XmlIterator iterator();
+
+    @Override
+    default Spliterator<Element> spliterator() {
+        return new XmlSpliterator(iterator());
+    }
+
+    /**
+     * The elements as a stream which closes the document when it's closed, so a stream
+     * that may stop early, like with <code>findFirst()</code>, should be used with
+     * try-with-resources
+     */
+    default Stream<Element> stream() {
+        XmlIterator iterator = iterator();
+        return StreamSupport.stream(new XmlSpliterator(iterator), false).onClose(iterator::close);
+    }
+
+    /**
+     * Parses on the calling thread and hands batches of the matching elements to the
+     * other threads of the stream, so the document is still only read once
+     */
+    default Stream<Element> parallelStream() {
+        XmlIterator iterator = iterator();
+        return StreamSupport.stream(new XmlSpliterator(iterator), true).onClose(iterator::close);
+    }
+
+    /**
+     * Closes the iterators that have not been read to the end. Does nothing for iterables
+     * that don't hold on to their iterators.
+     */
+    @Override
+    default void close() {
+    }
 }
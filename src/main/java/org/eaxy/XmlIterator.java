@@ -4,86 +4,165 @@ import static org.eaxy.Xml.cdata;
 import static org.eaxy.Xml.comment;
 import static org.eaxy.Xml.text;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
-import java.util.zip.GZIPInputStream;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
-import javax.xml.namespace.QName;
-import javax.xml.stream.XMLInputFactory;
+import javax.annotation.Nullable;
 import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 
-import com.sun.org.apache.xerces.internal.impl.Constants;
-
-@SuppressWarnings("restriction")
-public class XmlIterator implements XMLStreamConstants, Iterator<Element> {
+public class XmlIterator implements XMLStreamConstants, Iterator<Element>, AutoCloseable {
 
     private final Stack<Element> elementStack = new Stack<Element>();
-    private XMLStreamReader streamReader;
+    private XmlScanner streamReader;
+
+    /**
+     * Matches the query against the names of the open elements, or null if the query
+     * can only be matched against the elements in {@link #elementStack}
+     */
+    @Nullable
+    private final StreamingMatcher matcher;
+    private int depth;
+    private long[] states = new long[16];
+    private final StartTag startTag;
+
+    /**
+     * The descendants to build in the matching elements, or null to build them all
+     */
+    @Nullable
+    private final StreamingMatcher projection;
+
+    private Namespace[] namespaces = new Namespace[8];
+    private int namespaceCount;
+    private int[] namespaceStart = new int[16];
+    private int namespaceVersion;
+
+    /** False if the scanner can't tell the byte offsets needed for checkpoints */
+    private final boolean checkpoints;
+    private long[] ancestorOffsets = new long[16];
+    private QualifiedName[] ancestorNames = new QualifiedName[16];
+    private int ancestorsVersion;
+    /** The ancestors when they last changed, shared by the positions of the matches since */
+    private int snapshotVersion = -1;
+    private long[] snapshotOffsets;
+    private QualifiedName[] snapshotNames;
+    /** Where the scanner was after the next element */
+    private long nextOffset;
+    private int nextLineNumber;
+    private long[] nextAncestorOffsets;
+    private QualifiedName[] nextAncestorNames;
+    /** Where the scanner was after the last returned element */
+    private long returnedOffset;
+    private int returnedLineNumber;
+    private long[] returnedAncestorOffsets;
+    private QualifiedName[] returnedAncestorNames;
+    private QualifiedName[] printedNamesOf;
+    private String[] printedNames;
+    /** The checkpoint of the last returned element, created when it's asked for */
+    private XmlCheckpoint checkpoint;
 
     public int currentLineNumber() {
-        return streamReader.getLocation().getLineNumber();
+        return streamReader.getLineNumber();
     }
 
     public int currentColumnNumber() {
-        return streamReader.getLocation().getColumnNumber();
+        return streamReader.getColumnNumber();
     }
 
+    /**
+     * The number of characters read, with either parser, or -1 when resuming from a checkpoint.
+     * {@link XmlCheckpoint#getOffset()} tells where the iterator is in bytes.
+     */
     public int currentCharacterOffset() {
-        return streamReader.getLocation().getCharacterOffset();
+        return (int) streamReader.getCharacterOffset();
     }
 
     private ElementQuery query;
+    /** Counts the elements found and the time spent when iterating with a {@link QueryProfile} */
+    @Nullable
+    private final QueryProfile profile;
 
     private Element next;
+    private int nextMatchingQuery;
+    private int matchingQuery;
+    private boolean closed;
 
     public XmlIterator(XMLStreamReader streamReader, ElementQuery query) {
+        this(new StaxScanner(streamReader), query);
+    }
+
+    XmlIterator(XmlScanner streamReader, ElementQuery query) {
+        this(streamReader, query, true);
+    }
+
+    /**
+     * Subclasses that don't read ahead override {@link #hasNext()} and {@link #next()}
+     */
+    XmlIterator(XmlScanner streamReader, ElementQuery query, boolean readAhead) {
+        this(streamReader, query, null, readAhead);
+    }
+
+    XmlIterator(XmlScanner streamReader, ElementQuery query, @Nullable StreamingMatcher projection, boolean readAhead) {
         this.streamReader = streamReader;
         this.query = query;
-
-        try {
+        this.profile = query instanceof QueryProfile ? (QueryProfile) query : null;
+        this.matcher = ElementFilters.streamingMatcher(query);
+        this.startTag = new StartTag(streamReader);
+        this.projection = projection;
+        this.checkpoints = streamReader.getEventOffset() >= 0;
+        if (readAhead) {
             this.next = nextMatchingElement();
-        } catch (XMLStreamException e) {
-            throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
         }
     }
 
-    private static XMLInputFactory getInputFactory() {
-        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
-        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
-        inputFactory.setProperty(Constants.ZEPHYR_PROPERTY_PREFIX + Constants.STAX_REPORT_CDATA_EVENT, Boolean.TRUE);
-        return inputFactory;
-    }
-
     public static Iterable<Element> read(ElementQuery query, Reader reader) throws IOException {
         Document doc = Xml.read(reader);
         return query.search(new ElementSet(doc.getRootElement()));
     }
 
-    private Element nextMatchingElement() throws XMLStreamException {
+    Element nextMatchingElement() {
+        if (profile == null) {
+            return readNextMatchingElement();
+        }
+        long start = System.nanoTime();
+        Element result = readNextMatchingElement();
+        profile.streamed(result != null, System.nanoTime() - start);
+        return result;
+    }
+
+    private Element readNextMatchingElement() {
         while (streamReader.hasNext()) {
             streamReader.next();
 
             switch (streamReader.getEventType()) {
             case START_ELEMENT:
-                Element element = readElement();
-                elementStack.push(element);
-
-                if (query.matches(elementStack, 1)) {
-                    readSubtree(element);
-                    elementStack.pop();
+                Element element = matcher != null ? matchStartElement() : matchElementStack();
+                if (element != null) {
+                    if (checkpoints) {
+                        markCheckpoint();
+                    }
                     return element;
                 }
-
                 break;
             case END_ELEMENT:
-                elementStack.pop();
+                if (matcher == null) {
+                    elementStack.pop();
+                }
+                popAncestor();
                 break;
             case CDATA:
             case SPACE:
@@ -103,7 +182,307 @@ public class XmlIterator implements XMLStreamConstants, Iterator<Element> {
         throw new IllegalStateException("Document not properly ended");
     }
 
-    private void readSubtree(Element rootElement) throws XMLStreamException {
+    /**
+     * Matches the start tag against the query by its name and only builds the element
+     * when a filter needs it. Skips the content of elements that can't contain matches.
+     * When the query has predicates on the children, they are decided while the element
+     * is read, and an element that doesn't match is skipped like the others.
+     */
+    private Element matchStartElement() {
+        startTag.reset();
+        long state = depth == 0
+                ? matcher.rootState()
+                : matcher.childState(states[depth - 1], streamReader.getName(), startTag);
+        if (matcher.isMatch(state)) {
+            Element element = startTag.get();
+            StreamingMatcher.ContentMatch content = matcher.contentMatch(state);
+            if (!readMatch(element, content)) {
+                return null;
+            }
+            nextMatchingQuery = content != null ? content.matchingPath() : matcher.matchingPath(state);
+            return element;
+        } else if (state == StreamingMatcher.NO_MATCH) {
+            streamReader.skipElement();
+            return null;
+        }
+        pushState(state);
+        return null;
+    }
+
+    private void pushState(long state) {
+        if (depth == states.length) {
+            states = Arrays.copyOf(states, depth * 2);
+        }
+        states[depth] = state;
+        pushAncestor();
+    }
+
+    private Element matchElementStack() {
+        Element element = readElement();
+        elementStack.push(element);
+
+        if (query.matches(elementStack, 1)) {
+            if (query instanceof ElementFilters.AnyQuery) {
+                nextMatchingQuery = ((ElementFilters.AnyQuery) query).matchingQuery(elementStack, 1);
+            }
+            elementStack.pop();
+            readMatch(element, null);
+            return element;
+        }
+        pushAncestor();
+        return null;
+    }
+
+    /**
+     * Builds the element of the current start tag the first time it's needed
+     */
+    private static class StartTag implements Supplier<Element> {
+        private final XmlScanner scanner;
+        private Element element;
+
+        StartTag(XmlScanner scanner) {
+            this.scanner = scanner;
+        }
+
+        StartTag reset() {
+            element = null;
+            return this;
+        }
+
+        @Override
+        public Element get() {
+            if (element == null) {
+                element = StaxReader.readElement(scanner);
+            }
+            return element;
+        }
+    }
+
+    private void pushAncestor() {
+        if (depth == namespaceStart.length) {
+            namespaceStart = Arrays.copyOf(namespaceStart, depth * 2);
+            ancestorOffsets = Arrays.copyOf(ancestorOffsets, depth * 2);
+            ancestorNames = Arrays.copyOf(ancestorNames, depth * 2);
+        }
+        if (checkpoints) {
+            ancestorOffsets[depth] = streamReader.getEventOffset();
+            ancestorNames[depth] = streamReader.getName();
+            ancestorsVersion++;
+        }
+        namespaceStart[depth++] = namespaceCount;
+        int count = streamReader.getNamespaceCount();
+        if (count > 0) {
+            if (namespaceCount + count > namespaces.length) {
+                namespaces = Arrays.copyOf(namespaces, Math.max(namespaces.length * 2, namespaceCount + count));
+            }
+            for (int i = 0; i < count; i++) {
+                namespaces[namespaceCount++] = streamReader.getNamespace(i);
+            }
+            namespaceVersion++;
+        }
+    }
+
+    private void popAncestor() {
+        ancestorNames[depth - 1] = null;
+        ancestorsVersion++;
+        int start = namespaceStart[--depth];
+        if (start != namespaceCount) {
+            Arrays.fill(namespaces, start, namespaceCount, null);
+            namespaceCount = start;
+            namespaceVersion++;
+        }
+    }
+
+    /**
+     * Remembers where the scanner is, right after the matching element. The ancestors
+     * are only copied when they have changed since the last match, and the
+     * {@link XmlCheckpoint} is only created by {@link #checkpoint()}.
+     */
+    private void markCheckpoint() {
+        if (snapshotVersion != ancestorsVersion) {
+            snapshotVersion = ancestorsVersion;
+            snapshotOffsets = Arrays.copyOf(ancestorOffsets, depth);
+            snapshotNames = Arrays.copyOf(ancestorNames, depth);
+        }
+        nextOffset = streamReader.getByteOffset();
+        nextLineNumber = streamReader.getLineNumber();
+        nextAncestorOffsets = snapshotOffsets;
+        nextAncestorNames = snapshotNames;
+    }
+
+    /**
+     * Where to resume with {@link #iterate(ElementQuery, Path, ParseOptions, XmlCheckpoint)}
+     * to get the elements after the last one returned by {@link #next()}. Requires the
+     * native parser, and the checkpoint can only be resumed from an uncompressed file.
+     *
+     * @throws IllegalStateException if no element has been returned yet
+     */
+    @Nonnull
+    public XmlCheckpoint checkpoint() {
+        if (!checkpoints) {
+            throw new UnsupportedOperationException("Checkpoints require the native parser");
+        } else if (checkpoint == null) {
+            if (returnedAncestorOffsets == null) {
+                throw new IllegalStateException("No element has been returned yet");
+            }
+            // Elements with the same ancestors share the names
+            if (printedNamesOf != returnedAncestorNames) {
+                printedNamesOf = returnedAncestorNames;
+                printedNames = new String[returnedAncestorNames.length];
+                for (int i = 0; i < printedNames.length; i++) {
+                    printedNames[i] = returnedAncestorNames[i].print();
+                }
+            }
+            checkpoint = new XmlCheckpoint(returnedOffset, returnedLineNumber, returnedAncestorOffsets, printedNames);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Reads the start tags of the checkpoint's ancestors from the file, as if they had
+     * been read on the way to the checkpoint, and continues after the checkpoint
+     */
+    private void resume(XmlTokenizer tokenizer, XmlCheckpoint checkpoint) {
+        for (int i = 0; i < checkpoint.ancestorCount(); i++) {
+            tokenizer.seek(checkpoint.ancestorOffset(i));
+            if (tokenizer.next() != START_ELEMENT || !tokenizer.getName().print().equals(checkpoint.ancestorName(i))) {
+                throw new IllegalArgumentException("Expected <" + checkpoint.ancestorName(i) + "> at offset "
+                        + checkpoint.ancestorOffset(i) + " for " + checkpoint);
+            }
+            if (matcher != null) {
+                long state = depth == 0
+                        ? matcher.rootState()
+                        : matcher.childState(states[depth - 1], streamReader.getName(), startTag.reset());
+                if (state == StreamingMatcher.NO_MATCH || matcher.isMatch(state)) {
+                    throw new IllegalArgumentException(checkpoint + " was not created for " + query);
+                }
+                pushState(state);
+            } else {
+                elementStack.push(readElement());
+                if (query.matches(elementStack, 1)) {
+                    throw new IllegalArgumentException(checkpoint + " was not created for " + query);
+                }
+                pushAncestor();
+            }
+        }
+        tokenizer.resume(checkpoint.getOffset(), checkpoint.getLineNumber());
+        this.checkpoint = checkpoint;
+        this.next = nextMatchingElement();
+    }
+
+    /**
+     * The namespaces declared by the open elements, with the innermost declaration
+     * of each prefix. Changes to {@link #namespaceVersion()} when these change.
+     */
+    List<Namespace> inScopeNamespaces() {
+        Map<String, Namespace> namespacesByPrefix = new LinkedHashMap<>();
+        for (int i = 0; i < namespaceCount; i++) {
+            namespacesByPrefix.put(namespaces[i].getPrefix(), namespaces[i]);
+        }
+        return new ArrayList<>(namespacesByPrefix.values());
+    }
+
+    int namespaceVersion() {
+        return namespaceVersion;
+    }
+
+    /**
+     * Called with the scanner at the START_ELEMENT of the matching element, which is not
+     * counted as open. Must leave the scanner at the element's END_ELEMENT. Returns false
+     * if the content shows that the element doesn't match after all.
+     */
+    boolean readMatch(Element element, @Nullable ContentMatcher content) {
+        return readSubtree(streamReader, element, projection, content);
+    }
+
+    static boolean readSubtree(XmlScanner streamReader, Element rootElement,
+            @Nullable StreamingMatcher projection, @Nullable ContentMatcher content) {
+        if (projection != null) {
+            return readProjection(streamReader, rootElement, projection, content);
+        } else {
+            return readSubtree(streamReader, rootElement, content);
+        }
+    }
+
+    /**
+     * Like {@link #readSubtree(XmlScanner, Element, ContentMatcher)}, but only builds the
+     * descendants matching the projection, with their ancestors. The content of all other
+     * elements is skipped, and so is the text of the ancestors. Children that are not
+     * projected are still read for the content matcher until it has decided, but
+     * are not kept.
+     */
+    static boolean readProjection(XmlScanner streamReader, Element rootElement, StreamingMatcher projection,
+            @Nullable ContentMatcher content) {
+        StartTag startTag = new StartTag(streamReader);
+        Element[] elements = new Element[8];
+        long[] states = new long[8];
+        elements[0] = rootElement;
+        states[0] = projection.rootState();
+        int depth = 1;
+        while (streamReader.hasNext()) {
+            Element child = null;
+            switch (streamReader.next()) {
+            case START_ELEMENT:
+                long state = projection.childState(states[depth - 1], streamReader.getName(), startTag.reset());
+                if (state == StreamingMatcher.NO_MATCH) {
+                    if (content != null && depth == 1) {
+                        child = startTag.get();
+                        readSubtree(streamReader, child);
+                    } else {
+                        streamReader.skipElement();
+                    }
+                } else if (projection.isMatch(state)) {
+                    Element element = startTag.get();
+                    readSubtree(streamReader, element);
+                    elements[depth - 1].add(element);
+                    child = depth == 1 ? element : null;
+                } else {
+                    if (depth == elements.length) {
+                        elements = Arrays.copyOf(elements, depth * 2);
+                        states = Arrays.copyOf(states, depth * 2);
+                    }
+                    elements[depth] = startTag.get();
+                    states[depth++] = state;
+                }
+                break;
+            case END_ELEMENT:
+                Element element = elements[--depth];
+                if (depth == 0) {
+                    return content == null || content.contentEnded();
+                }
+                elements[depth] = null;
+                // Ancestors are only kept if something inside them matched
+                if (!element.childNodes().isEmpty()) {
+                    elements[depth - 1].add(element);
+                }
+                child = depth == 1 ? element : null;
+                break;
+            default:
+                break;
+            }
+            if (content != null && child != null) {
+                Boolean result = content.childRead(child);
+                if (result != null && !result) {
+                    skipContent(streamReader);
+                    return false;
+                } else if (result != null) {
+                    content = null;
+                }
+            }
+        }
+        throw new IllegalStateException("Didn't find closing tag for " + rootElement);
+    }
+
+    static void readSubtree(XmlScanner streamReader, Element rootElement) {
+        readSubtree(streamReader, rootElement, (ContentMatcher) null);
+    }
+
+    /**
+     * Reads the content of the element, and gives each child to the content matcher as
+     * it ends until the matcher has decided. When the element doesn't match, the rest
+     * of it is skipped without building it. Returns whether the element matches.
+     */
+    static boolean readSubtree(XmlScanner streamReader, Element rootElement, @Nullable ContentMatcher content) {
         Stack<Element> elementStack = new Stack<>();
         elementStack.push(rootElement);
         while (streamReader.hasNext()) {
@@ -111,14 +490,22 @@ public class XmlIterator implements XMLStreamConstants, Iterator<Element> {
 
             switch (streamReader.getEventType()) {
             case START_ELEMENT:
-                Element element = readElement();
+                Element element = StaxReader.readElement(streamReader);
                 elementStack.peek().add(element);
                 elementStack.push(element);
                 break;
             case END_ELEMENT:
-                elementStack.pop();
+                Element ended = elementStack.pop();
                 if (elementStack.isEmpty()) {
-                    return;
+                    return content == null || content.contentEnded();
+                } else if (content != null && elementStack.size() == 1) {
+                    Boolean result = content.childRead(ended);
+                    if (result != null && !result) {
+                        skipContent(streamReader);
+                        return false;
+                    } else if (result != null) {
+                        content = null;
+                    }
                 }
                 break;
             case CDATA:
@@ -142,44 +529,90 @@ public class XmlIterator implements XMLStreamConstants, Iterator<Element> {
         throw new IllegalStateException("Didn't find closing tag for " + rootElement);
     }
 
-    private Element readElement() {
-        QName name = streamReader.getName();
-        Element element = new Element(toName(name));
-
-        for (int i = 0; i < streamReader.getNamespaceCount(); i++) {
-            element.namespace(new Namespace(streamReader.getNamespaceURI(i), streamReader.getNamespacePrefix(i)));
+    /**
+     * Skips the rest of the content of the element being read, up to its END_ELEMENT
+     */
+    private static void skipContent(XmlScanner streamReader) {
+        while (streamReader.hasNext()) {
+            switch (streamReader.next()) {
+            case START_ELEMENT:
+                streamReader.skipElement();
+                break;
+            case END_ELEMENT:
+                return;
+            default:
+                break;
+            }
         }
+        throw new IllegalStateException("Document not properly ended");
+    }
 
-        for (int i = 0; i < streamReader.getAttributeCount(); i++) {
-            element.attr(toName(streamReader.getAttributeName(i)), streamReader.getAttributeValue(i));
-        }
-        return element;
+    private Element readElement() {
+        return StaxReader.readElement(streamReader);
     }
 
-    static QualifiedName toName(QName name) {
-        return new QualifiedName(name.getNamespaceURI(), name.getLocalPart(), name.getPrefix());
+    @Nonnull
+    public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull URL url) {
+        return iterate(query, url, ParseOptions.defaults());
     }
 
     @SuppressWarnings("resource")
     @Nonnull
-    public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull URL url) {
-        final InputStream inputStream = openStream(url);
-        return new XmlIterable() {
-            @Override
-            public XmlIterator iterator() {
-                try {
-                    return new XmlIterator(getInputFactory().createXMLStreamReader(inputStream), query);
-                } catch (XMLStreamException e) {
-                    throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
+    public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull URL url, @Nonnull final ParseOptions options) {
+        final InputStream inputStream = openStream(url, options);
+        return new ClosingIterable(() -> create(options.createScanner(inputStream), query, options), inputStream);
+    }
+
+    @Nonnull
+    public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull final Path path, @Nonnull final ParseOptions options) {
+        return new ClosingIterable(() -> {
+            try {
+                if (options.parallelPool() != null) {
+                    return ParallelXmlIterator.open(path, query, options);
                 }
+                return create(options.createScanner(path), query, options);
+            } catch (IOException e) {
+                throw new RuntimeException("Can't open " + path, e);
             }
-        };
+        }, null);
     }
 
-    private static InputStream openStream(URL url) {
+    /**
+     * Continues where the checkpoint of an earlier iteration over the same file and query
+     * was made, without parsing the elements before it
+     */
+    @Nonnull
+    public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull final Path path,
+            @Nonnull final ParseOptions options, @Nonnull final XmlCheckpoint checkpoint) {
+        if (options.parser() != ParseOptions.Parser.NATIVE || path.toString().endsWith(".gz")
+                || options.parallelPool() != null || options.prefetch() > 0) {
+            throw new IllegalArgumentException("Resuming from a checkpoint requires the native parser and an uncompressed file,"
+                    + " without parallel or prefetch, was " + options + " for " + path);
+        }
+        return new ClosingIterable(() -> {
+            XmlTokenizer tokenizer;
+            try {
+                tokenizer = XmlTokenizer.map(path).names(options.names());
+            } catch (IOException e) {
+                throw new RuntimeException("Can't open " + path, e);
+            }
+            XmlIterator iterator = new XmlIterator(options.filter(tokenizer), query, options.projection(), false);
+            iterator.resume(tokenizer, checkpoint);
+            return iterator;
+        }, null);
+    }
+
+    private static XmlIterator create(XmlScanner scanner, ElementQuery query, ParseOptions options) {
+        if (options.prefetch() > 0) {
+            return new PrefetchingXmlIterator(scanner, query, options.projection(), options.prefetch());
+        }
+        return new XmlIterator(scanner, query, options.projection(), true);
+    }
+
+    private static InputStream openStream(URL url, ParseOptions options) {
         try {
             if (url.getFile().endsWith(".gz")) {
-                return new GZIPInputStream(url.openStream());
+                return options.decompress(url.openStream());
             } else {
                 return url.openStream();
             }
@@ -190,20 +623,70 @@ public class XmlIterator implements XMLStreamConstants, Iterator<Element> {
 
     @Nonnull
     public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull final Reader reader) {
-        return new XmlIterable() {
-            @Override
-            public XmlIterator iterator() {
-                try {
-                    return new XmlIterator(getInputFactory().createXMLStreamReader(reader), query);
-                } catch (XMLStreamException e) {
-                    throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
+        return iterate(query, reader, ParseOptions.defaults());
+    }
+
+    @Nonnull
+    public static XmlIterable iterate(@Nonnull final ElementQuery query, @Nonnull final Reader reader, @Nonnull final ParseOptions options) {
+        return new ClosingIterable(() -> create(options.createScanner(reader), query, options), null);
+    }
+
+    /**
+     * Remembers the iterators it has created, so {@link #close()} can close the ones
+     * that were not read to the end
+     */
+    private static class ClosingIterable implements XmlIterable {
+        private final Supplier<XmlIterator> opener;
+        @Nullable
+        private final Closeable input;
+        private final List<XmlIterator> iterators = new ArrayList<>();
+
+        ClosingIterable(Supplier<XmlIterator> opener, @Nullable Closeable input) {
+            this.opener = opener;
+            this.input = input;
+        }
+
+        @Override
+        public synchronized XmlIterator iterator() {
+            iterators.removeIf(iterator -> iterator.closed);
+            XmlIterator iterator = opener.get();
+            iterators.add(iterator);
+            return iterator;
+        }
+
+        @Override
+        public synchronized void close() {
+            for (XmlIterator iterator : iterators) {
+                iterator.close();
+            }
+            iterators.clear();
+            try {
+                if (input != null) {
+                    input.close();
                 }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-        };
+        }
     }
 
 
 
+    /**
+     * Which of the queries of an {@link ElementFilters.AnyQuery} the element last returned
+     * by {@link #next()} matched, or 0 for other queries
+     */
+    int matchingQuery() {
+        return matchingQuery;
+    }
+
+    /**
+     * False if the elements may be returned in a different order than in the document
+     */
+    boolean isOrdered() {
+        return true;
+    }
+
     @Override
     public boolean hasNext() {
         return next != null;
@@ -212,15 +695,31 @@ public class XmlIterator implements XMLStreamConstants, Iterator<Element> {
     @Override
     public Element next() {
         Element current = next;
-        try {
-            next = nextMatchingElement();
-            if (next == null) {
-                streamReader.close();
-            }
-        } catch (XMLStreamException e) {
-            throw new MalformedXMLException(e.getMessage(), e.getLocation().getLineNumber());
+        if (checkpoints) {
+            checkpoint = null;
+            returnedOffset = nextOffset;
+            returnedLineNumber = nextLineNumber;
+            returnedAncestorOffsets = nextAncestorOffsets;
+            returnedAncestorNames = nextAncestorNames;
+        }
+        matchingQuery = nextMatchingQuery;
+        next = nextMatchingElement();
+        if (next == null) {
+            close();
         }
         return current;
     }
 
+    /**
+     * Closes the document, for when the iteration stops before the end. Called when
+     * the last element has been returned.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            streamReader.close();
+        }
+    }
+
 }
@@ -0,0 +1,284 @@
+package org.eaxy;
+
+import static org.eaxy.Xml.cdata;
+import static org.eaxy.Xml.comment;
+import static org.eaxy.Xml.text;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Stack;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamConstants;
+
+/**
+ * Parses a document from bytes that are pushed to it as they arrive, for example from
+ * a non-blocking socket, instead of pulling them from an InputStream. The parser never
+ * waits for input: {@link #feed(ByteBuffer)} parses every event that has arrived in full
+ * and keeps the rest of the bytes until the next call. The elements matching the query
+ * are returned as soon as they end, like {@link ElementQuery#iterate}, and the whole
+ * document is returned by {@link #endOfInput()}.
+ *
+ * <pre>
+ * XmlPushParser parser = new XmlPushParser(Xml.filter("order", "line"));
+ * while (channel.read(buffer) &gt;= 0) {
+ *     buffer.flip();
+ *     for (Element line : parser.feed(buffer)) {
+ *         ...
+ *     }
+ *     buffer.clear();
+ * }
+ * Document order = parser.endOfInput();
+ * </pre>
+ *
+ * <p>Always reads with eaxy's own tokenizer, so the input must be UTF-8, US-ASCII or
+ * ISO-8859-1, like with {@link ParseOptions#nativeParser()}. A parser is not thread safe.
+ */
+public class XmlPushParser implements XMLStreamConstants {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final FeedInput input = new FeedInput();
+    private final ParseOptions options;
+    private XmlTokenizer tokenizer;
+
+    @Nullable
+    private final ElementQuery query;
+    /**
+     * Matches the query against the names of the open elements, or null if the query
+     * can only be matched against the elements in {@link #elementStack}
+     */
+    @Nullable
+    private final StreamingMatcher matcher;
+    private long[] states = new long[16];
+    /** The depth of the matching element that is being read, or 0 */
+    private int matchDepth;
+    /** Decides the predicates of the query on the children of the matching element */
+    @Nullable
+    private ContentMatcher matchContent;
+
+    private final Document document = new Document();
+    private final Stack<Element> elementStack = new Stack<>();
+    private boolean ended;
+
+    /**
+     * Only builds the document
+     */
+    public XmlPushParser() {
+        this(null);
+    }
+
+    public XmlPushParser(@Nullable ElementQuery query) {
+        this(query, ParseOptions.defaults());
+    }
+
+    /**
+     * Uses the names and {@link ParseOptions#ignoreWhitespace(boolean)} of the options.
+     * Whitespace is only dropped when it's all the text between two tags.
+     */
+    public XmlPushParser(@Nullable ElementQuery query, @Nonnull ParseOptions options) {
+        this.query = query;
+        this.matcher = query != null ? ElementFilters.streamingMatcher(query) : null;
+        this.options = Objects.nonnull(options, "options");
+    }
+
+    /**
+     * Parses the remaining bytes of the buffer along with those left over from earlier
+     * calls, and returns the elements matching the query which ended in them.
+     * The bytes are copied, so the buffer can be reused when this returns.
+     */
+    @Nonnull
+    public List<Element> feed(@Nonnull ByteBuffer bytes) {
+        if (ended) {
+            throw new IllegalStateException("Can't feed more input after endOfInput()");
+        }
+        if (!input.add(bytes)) {
+            return Collections.emptyList();
+        }
+        if (tokenizer == null) {
+            if (!input.hasDeclaration()) {
+                return Collections.emptyList();
+            }
+            tokenizer = createTokenizer();
+        } else {
+            tokenizer.readMore();
+        }
+        return parse();
+    }
+
+    /**
+     * Parses what is left of the input and returns the document.
+     *
+     * @throws MalformedXMLException if the document isn't complete
+     */
+    @Nonnull
+    public Document endOfInput() {
+        if (!ended) {
+            ended = true;
+            if (tokenizer == null) {
+                tokenizer = createTokenizer();
+            }
+            // With no new bytes, this tells the tokenizer that the input has ended
+            tokenizer.readMore();
+            parse();
+        }
+        return document;
+    }
+
+    private XmlTokenizer createTokenizer() {
+        return new XmlTokenizer(input, XmlTokenizer.emptyBuffer(BUFFER_SIZE)).names(options.names());
+    }
+
+    private List<Element> parse() {
+        List<Element> matches = new ArrayList<>();
+        while (tokenizer.hasNext() && tokenizer.hasCompleteEvent()) {
+            switch (tokenizer.next()) {
+            case START_ELEMENT:
+                startElement(StaxReader.readElement(tokenizer, tokenizer.getLineNumber()));
+                break;
+            case END_ELEMENT:
+                Element element = elementStack.pop();
+                if (elementStack.size() + 1 == matchDepth) {
+                    matchDepth = 0;
+                    // The whole document is kept, so there is nothing to gain from deciding earlier
+                    if (matchContent == null || ContentMatcher.matches(matchContent, element)) {
+                        matches.add(element);
+                    }
+                }
+                break;
+            case CHARACTERS:
+                if (!options.isIgnoreWhitespace() || !tokenizer.isWhitespace()) {
+                    elementStack.peek().add(text(tokenizer.getText()));
+                }
+                break;
+            case CDATA:
+                elementStack.peek().add(cdata(tokenizer.getText()));
+                break;
+            case COMMENT:
+                // Comments outside the root element have nowhere to go in the Document
+                if (!elementStack.isEmpty()) {
+                    elementStack.peek().add(comment(tokenizer.getText()));
+                }
+                break;
+            case DTD:
+                document.addDTD(tokenizer.getText());
+                break;
+            default:
+                break;
+            }
+        }
+        return matches;
+    }
+
+    private void startElement(Element element) {
+        if (elementStack.isEmpty()) {
+            if (tokenizer.getVersion() != null) {
+                document.setVersion(tokenizer.getVersion());
+            }
+            if (tokenizer.getEncoding() != null) {
+                document.setEncoding(tokenizer.getEncoding());
+            }
+            document.setRootElement(element);
+        } else {
+            elementStack.peek().add(element);
+        }
+        elementStack.push(element);
+        if (matchDepth == 0 && matches(element)) {
+            matchDepth = elementStack.size();
+        }
+    }
+
+    /**
+     * Like {@link XmlIterator}, matches the elements outside the matching elements
+     */
+    private boolean matches(Element element) {
+        if (query == null) {
+            return false;
+        } else if (matcher == null) {
+            return query.matches(elementStack, 1);
+        }
+        int depth = elementStack.size() - 1;
+        long state = depth == 0
+                ? matcher.rootState()
+                : matcher.childState(states[depth - 1], element.getName(), () -> element);
+        if (depth == states.length) {
+            states = Arrays.copyOf(states, depth * 2);
+        }
+        states[depth] = state;
+        if (!matcher.isMatch(state)) {
+            return false;
+        }
+        matchContent = matcher.contentMatch(state);
+        return true;
+    }
+
+    /**
+     * Gives the tokenizer the bytes that have been fed since it last read, after the
+     * bytes it keeps from the start of the current token. Only asked to fill when
+     * there are new bytes or at the end of the input, as the tokenizer takes a fill
+     * without new bytes as the end.
+     */
+    private static class FeedInput extends XmlTokenizer.Input {
+        private byte[] pending = new byte[4096];
+        private int pendingCount;
+
+        boolean add(ByteBuffer bytes) {
+            int count = bytes.remaining();
+            if (pendingCount + count > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingCount + count));
+            }
+            bytes.get(pending, pendingCount, count);
+            pendingCount += count;
+            return count > 0;
+        }
+
+        /**
+         * True when the tokenizer can read the BOM and the XML declaration, which it
+         * does as soon as it's created
+         */
+        boolean hasDeclaration() {
+            int start = pendingCount >= 3 && (pending[0] & 0xff) == 0xEF ? 3 : 0;
+            if (pendingCount < start + 6) {
+                return false;
+            } else if (!startsWith(start, "<?xml")) {
+                return true;
+            }
+            for (int i = start + 5; i + 1 < pendingCount; i++) {
+                if (pending[i] == '?' && pending[i + 1] == '>') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean startsWith(int start, String prefix) {
+            for (int i = 0; i < prefix.length(); i++) {
+                if (pending[start + i] != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        ByteBuffer fill(ByteBuffer buffer, int keepFrom) {
+            byte[] array = buffer.array();
+            int keep = buffer.limit() - keepFrom;
+            if (keep + pendingCount > array.length) {
+                array = Arrays.copyOfRange(array, keepFrom, keepFrom + Math.max(array.length * 2, keep + pendingCount));
+            } else if (keepFrom > 0) {
+                System.arraycopy(array, keepFrom, array, 0, keep);
+            }
+            System.arraycopy(pending, 0, array, keep, pendingCount);
+            ByteBuffer result = ByteBuffer.wrap(array);
+            result.limit(keep + pendingCount);
+            pendingCount = 0;
+            return result;
+        }
+    }
+
+}
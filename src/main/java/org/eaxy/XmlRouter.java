@@ -0,0 +1,111 @@
+package org.eaxy;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Hands the elements matching each of several queries to the handler of the query,
+ * while reading the document only once. This replaces iterating over the same file
+ * once for each kind of record:
+ *
+ * <pre>
+ * new XmlRouter()
+ *     .route(Xml.filter("...", "OppfLegemiddelpakning"), pakning -&gt; ...)
+ *     .route(Xml.filter("...", "OppfInteraksjon"), interaksjon -&gt; ...)
+ *     .parse(Paths.get("fest251.xml"));
+ * </pre>
+ *
+ * <p>The routes are matched against the start tags like {@link ElementQuery#iterate},
+ * so only the elements that match are built. An element goes to the first route that
+ * matches it. A matching element is read with all its content, so the elements inside
+ * it are not routed by themselves.
+ */
+public class XmlRouter {
+
+    private final List<ElementQuery> queries = new ArrayList<>();
+    private final List<Consumer<? super Element>> handlers = new ArrayList<>();
+
+    @Nonnull
+    public XmlRouter route(@Nonnull ElementQuery query, @Nonnull Consumer<? super Element> handler) {
+        queries.add(query);
+        handlers.add(handler);
+        return this;
+    }
+
+    /**
+     * Reads the file with the native parser, straight from the memory mapped file, and
+     * returns the number of elements that were routed
+     */
+    public int parse(@Nonnull Path path) {
+        return parse(path, ParseOptions.nativeParser());
+    }
+
+    public int parse(@Nonnull Path path, @Nonnull ParseOptions options) {
+        checkOptions(options);
+        XmlScanner scanner;
+        try {
+            scanner = options.createScanner(path);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open " + path, e);
+        }
+        return dispatch(new XmlIterator(scanner, query(), options.projection(), true));
+    }
+
+    public int parse(@Nonnull URL url) {
+        return parse(url, ParseOptions.defaults());
+    }
+
+    public int parse(@Nonnull URL url, @Nonnull ParseOptions options) {
+        checkOptions(options);
+        return dispatch(XmlIterator.iterate(query(), url, options).iterator());
+    }
+
+    public int parse(@Nonnull Reader reader) {
+        return parse(reader, ParseOptions.defaults());
+    }
+
+    public int parse(@Nonnull Reader reader, @Nonnull ParseOptions options) {
+        checkOptions(options);
+        return dispatch(XmlIterator.iterate(query(), reader, options).iterator());
+    }
+
+    private ElementQuery query() {
+        if (queries.isEmpty()) {
+            throw new IllegalStateException("No routes");
+        }
+        return new ElementFilters.AnyQuery(new ArrayList<>(queries));
+    }
+
+    private int dispatch(XmlIterator iterator) {
+        int count = 0;
+        while (iterator.hasNext()) {
+            Element element = iterator.next();
+            handlers.get(iterator.matchingQuery()).accept(element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * The elements are handled on the thread that reads them, as the other threads
+     * of parallel and prefetching iteration don't know which route an element matched
+     */
+    private static void checkOptions(ParseOptions options) {
+        if (options.parallelPool() != null || options.prefetch() > 0) {
+            throw new IllegalArgumentException("Routing reads on the calling thread, without parallel or prefetch, was " + options);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + queries;
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.eaxy;
+
+import javax.xml.stream.XMLStreamConstants;
+
+/**
+ * The pull parser events that {@link StaxReader} and {@link XmlIterator} build
+ * elements from. Implemented on top of javax.xml.stream by {@link StaxScanner}
+ * and directly on the input bytes by {@link XmlTokenizer}. Errors in the input
+ * are reported as {@link MalformedXMLException}.
+ */
+interface XmlScanner extends XMLStreamConstants {
+
+    boolean hasNext();
+
+    int next();
+
+    int getEventType();
+
+    QualifiedName getName();
+
+    int getNamespaceCount();
+
+    Namespace getNamespace(int index);
+
+    int getAttributeCount();
+
+    QualifiedName getAttributeName(int index);
+
+    String getAttributeValue(int index);
+
+    String getText();
+
+    String getVersion();
+
+    String getEncoding();
+
+    int getLineNumber();
+
+    int getColumnNumber();
+
+    /**
+     * The number of characters read, or -1 if it isn't known
+     */
+    long getCharacterOffset();
+
+    /**
+     * The offset in bytes of the first byte of the current event, or -1 if the scanner
+     * doesn't read bytes. Used for {@link XmlCheckpoint}s.
+     */
+    default long getEventOffset() {
+        return -1;
+    }
+
+    /**
+     * The number of bytes read, or -1 if the scanner doesn't read bytes. Unlike
+     * {@link #getCharacterOffset()}, this counts each byte of a UTF-8 character.
+     */
+    default long getByteOffset() {
+        return -1;
+    }
+
+    void close();
+
+    /**
+     * Called on START_ELEMENT to move to the element's END_ELEMENT without building
+     * anything from the content in between
+     */
+    default void skipElement() {
+        int level = 1;
+        while (level > 0) {
+            int event = next();
+            if (event == START_ELEMENT) {
+                level++;
+            } else if (event == END_ELEMENT) {
+                level--;
+            }
+        }
+    }
+
+}
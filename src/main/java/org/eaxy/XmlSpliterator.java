@@ -0,0 +1,68 @@
+package org.eaxy;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Splits a streaming parse by reading batches of elements from the {@link XmlIterator}
+ * into arrays that other threads can process. The batches grow with each split, so
+ * short documents aren't spread too thin and long documents don't split too often,
+ * and only the batches that have been split off are kept in memory.
+ */
+class XmlSpliterator implements Spliterator<Element> {
+
+    static final int BATCH_UNIT = 64;
+
+    static final int MAX_BATCH = 4096;
+
+    private final XmlIterator iterator;
+    private final int characteristics;
+    private int batchSize;
+
+    XmlSpliterator(XmlIterator iterator) {
+        this.iterator = iterator;
+        this.characteristics = iterator.isOrdered() ? ORDERED | NONNULL : NONNULL;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Element> action) {
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        action.accept(iterator.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Element> action) {
+        while (iterator.hasNext()) {
+            action.accept(iterator.next());
+        }
+    }
+
+    @Override
+    public Spliterator<Element> trySplit() {
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        batchSize = Math.min(batchSize + BATCH_UNIT, MAX_BATCH);
+        Element[] batch = new Element[batchSize];
+        int count = 0;
+        while (count < batch.length && iterator.hasNext()) {
+            batch[count++] = iterator.next();
+        }
+        return Spliterators.spliterator(batch, 0, count, characteristics | SIZED | SUBSIZED);
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return characteristics;
+    }
+
+}
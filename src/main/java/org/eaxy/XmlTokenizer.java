@@ -0,0 +1,1233 @@
+package org.eaxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A pull parser that reads UTF-8 (or ISO-8859-1) encoded XML directly from bytes,
+ * without going through javax.xml.stream. Text, comments and attribute values are
+ * only decoded when they are asked for, so content that the caller skips costs no
+ * more than scanning its bytes.
+ *
+ * <p>The tokenizer keeps every byte from the start of the current token in its
+ * buffer ({@link #mark}) and the {@link Input} refills the buffer from there, so a
+ * token can span any number of reads from the underlying input.
+ */
+final class XmlTokenizer implements XmlScanner {
+
+    static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    static final int MAPPED_WINDOW_SIZE = 1 << 30;
+
+    private static final int RAW = 0, TEXT = 1, ATTRIBUTE = 2;
+
+    /**
+     * The number of UTF-16 characters that start at each byte of UTF-8: none for the
+     * continuation bytes, and two for the first byte of a supplementary character
+     */
+    private static final byte[] UTF8_CHARS = new byte[256];
+    static {
+        for (int b = 0; b < 256; b++) {
+            UTF8_CHARS[b] = (byte) ((b & 0xC0) == 0x80 ? 0 : (b & 0xF8) == 0xF0 ? 2 : 1);
+        }
+    }
+
+    private static final Pattern DECLARATION_ATTRIBUTE
+        = Pattern.compile("\\s(version|encoding|standalone)\\s*=\\s*(['\"])(.*?)\\2");
+
+    /**
+     * Supplies the bytes for the tokenizer.
+     */
+    abstract static class Input {
+
+        /**
+         * Returns a buffer which starts with the bytes from <code>keepFrom</code> up to
+         * the limit of the current buffer, followed by whatever more could be read. When
+         * the returned buffer contains no new bytes, the input is exhausted.
+         */
+        abstract ByteBuffer fill(ByteBuffer buffer, int keepFrom) throws IOException;
+
+        void close() throws IOException {
+        }
+    }
+
+    static class StreamInput extends Input {
+        private final InputStream inputStream;
+
+        StreamInput(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        ByteBuffer fill(ByteBuffer buffer, int keepFrom) throws IOException {
+            byte[] array = buffer.array();
+            int keep = buffer.limit() - keepFrom;
+            if (keep > array.length / 2) {
+                array = Arrays.copyOfRange(array, keepFrom, keepFrom + array.length * 2);
+            } else if (keepFrom > 0) {
+                System.arraycopy(array, keepFrom, array, 0, keep);
+            }
+            int read = inputStream.read(array, keep, array.length - keep);
+            ByteBuffer result = ByteBuffer.wrap(array);
+            result.limit(keep + Math.max(read, 0));
+            return result;
+        }
+
+        @Override
+        void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Reads a file through memory mapped windows of at most <code>windowSize</code> bytes,
+     * so the tokenizer reads the operating system's page cache without any copying.
+     * Files larger than a window are mapped again from the start of the current token
+     * when the tokenizer reaches the end of the window.
+     */
+    static class MappedInput extends Input {
+        private final FileChannel channel;
+        private final long size;
+        private final int windowSize;
+        private long windowStart;
+
+        MappedInput(FileChannel channel, int windowSize) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.windowSize = windowSize;
+        }
+
+        ByteBuffer firstWindow() throws IOException {
+            return window(0);
+        }
+
+        ByteBuffer window(long start) throws IOException {
+            if (start > size) {
+                throw new IOException("Offset " + start + " is past the end of the file (" + size + " bytes)");
+            }
+            windowStart = start;
+            return channel.map(MapMode.READ_ONLY, start, Math.min(size - start, windowSize));
+        }
+
+        @Override
+        ByteBuffer fill(ByteBuffer buffer, int keepFrom) throws IOException {
+            long start = windowStart + keepFrom;
+            int keep = buffer.limit() - keepFrom;
+            if (start + keep >= size) {
+                buffer.position(keepFrom);
+                ByteBuffer rest = buffer.slice();
+                buffer.position(0);
+                windowStart = start;
+                return rest;
+            }
+            long length = Math.min(size - start, keep + (long) windowSize);
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Can't map a single token of more than " + Integer.MAX_VALUE + " bytes");
+            }
+            windowStart = start;
+            return channel.map(MapMode.READ_ONLY, start, length);
+        }
+
+        @Override
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * A name as it occurs in the input, so the tokenizer only has to decode each
+     * distinct name once
+     */
+    private static final class Symbol {
+        private final byte[] bytes;
+        private final String name;
+        private final String prefix;
+        private final String localName;
+
+        Symbol(byte[] bytes, String name) {
+            this.bytes = bytes;
+            this.name = name;
+            int colonPos = name.indexOf(':');
+            this.prefix = colonPos != -1 ? name.substring(0, colonPos) : null;
+            this.localName = colonPos != -1 ? name.substring(colonPos + 1) : name;
+        }
+
+        boolean matches(ByteBuffer buffer, int start, int length) {
+            if (bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isNamespaceDeclaration() {
+            return name.equals("xmlns") || "xmlns".equals(prefix);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Input input;
+    private ByteBuffer buffer;
+    private int limit;
+    private int pos;
+    private int mark;
+    private long bufferOffset;
+    private boolean endOfInput;
+
+    private boolean latin1;
+    private String version;
+    private String encoding = "UTF-8";
+
+    private int lineNumber = 1;
+    private int lineScanPos;
+    private int lineStart;
+    /** The characters before lineScanPos, or -1 when the start of the input wasn't read */
+    private long characterCount;
+
+    /**
+     * Where {@link #hasCompleteEvent()} found an event that hadn't arrived in full, or -1,
+     * so the scan continues from {@link #scanResume} when more bytes have been fed
+     */
+    private int scanStart = -1;
+    private int scanResume;
+    /** The open quote and brackets of a tag that hadn't arrived in full */
+    private byte scanQuote;
+    private int scanLevel;
+
+    private int eventType = START_DOCUMENT;
+    private boolean emptyElement;
+    private boolean seenRootElement;
+
+    private int depth;
+    private Symbol[] openTags = new Symbol[16];
+    private QualifiedName[] openNames = new QualifiedName[16];
+    private QualifiedName name;
+
+    private String[] namespacePrefixes = new String[8];
+    private String[] namespaceUris = new String[8];
+    private int namespaceCount;
+    private int[] namespaceStart = new int[16];
+
+    private Symbol[] attributeNames = new Symbol[8];
+    private QualifiedName[] attributeQualifiedNames = new QualifiedName[8];
+    private int[] attributeValueStart = new int[8];
+    private int[] attributeValueEnd = new int[8];
+    private int attributeCount;
+
+    private String[] declaredPrefixes = new String[4];
+    private String[] declaredUris = new String[4];
+    private int declaredCount;
+
+    // Relative to mark, like the attribute values
+    private int textStart;
+    private int textEnd;
+    private int textMode;
+    private boolean whitespace;
+    private String text;
+
+    private char[] chars = new char[256];
+    private int charCount;
+
+    private Symbol[] symbols = new Symbol[512];
+    private NameTable names = new NameTable(false);
+
+    XmlTokenizer(InputStream inputStream) {
+        this(new StreamInput(inputStream), emptyBuffer(DEFAULT_BUFFER_SIZE));
+    }
+
+    XmlTokenizer(ByteBuffer content) {
+        this(null, content);
+    }
+
+    XmlTokenizer(Input input, ByteBuffer buffer) {
+        this(input, buffer, true);
+    }
+
+    private XmlTokenizer(Input input, ByteBuffer buffer, boolean readDeclaration) {
+        this.input = input;
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+        this.endOfInput = input == null;
+        if (readDeclaration) {
+            readDeclaration();
+        }
+    }
+
+    /**
+     * Reads single elements out of the content with {@link #range}. The document's
+     * declaration has already been read by another tokenizer, which
+     * tells whether the content is <code>latin1</code>.
+     */
+    static XmlTokenizer fragment(ByteBuffer content, boolean latin1) {
+        XmlTokenizer tokenizer = new XmlTokenizer(null, content, false);
+        tokenizer.latin1 = latin1;
+        return tokenizer;
+    }
+
+    static XmlTokenizer map(Path path) throws IOException {
+        return map(path, MAPPED_WINDOW_SIZE);
+    }
+
+    static XmlTokenizer map(Path path, int windowSize) throws IOException {
+        return map(FileChannel.open(path, StandardOpenOption.READ), windowSize);
+    }
+
+    /**
+     * Reads the file through memory mapped windows. The channel is closed with the tokenizer.
+     */
+    static XmlTokenizer map(FileChannel channel, int windowSize) throws IOException {
+        try {
+            MappedInput input = new MappedInput(channel, windowSize);
+            return new XmlTokenizer(input, input.firstWindow());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    XmlTokenizer names(NameTable names) {
+        this.names = names;
+        return this;
+    }
+
+    static ByteBuffer emptyBuffer(int size) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.limit(0);
+        return buffer;
+    }
+
+    private void readDeclaration() {
+        if (ensure(3) && (buffer.get(0) & 0xff) == 0xEF && (buffer.get(1) & 0xff) == 0xBB && (buffer.get(2) & 0xff) == 0xBF) {
+            pos = 3;
+        } else if (ensure(2) && ((buffer.get(0) & 0xff) == 0xFE || (buffer.get(0) & 0xff) == 0xFF)) {
+            throw malformed("Unsupported encoding UTF-16");
+        }
+        mark = pos;
+        if (lookingAt("<?xml") && ensure(6) && isWhitespace(buffer.get(pos + 5))) {
+            int end = scanUntil("?>");
+            Matcher matcher = DECLARATION_ATTRIBUTE.matcher(decode(mark, end, RAW));
+            while (matcher.find()) {
+                if (matcher.group(1).equals("version")) {
+                    version = matcher.group(3);
+                } else if (matcher.group(1).equals("encoding")) {
+                    encoding = matcher.group(3);
+                }
+            }
+            String normalizedEncoding = encoding.toUpperCase().replace("_", "-");
+            if (normalizedEncoding.equals("ISO-8859-1") || normalizedEncoding.equals("LATIN1")) {
+                latin1 = true;
+            } else if (!normalizedEncoding.equals("UTF-8") && !normalizedEncoding.equals("US-ASCII")) {
+                throw malformed("Unsupported encoding " + encoding);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return eventType != END_DOCUMENT;
+    }
+
+    @Override
+    public int next() {
+        if (eventType == END_DOCUMENT) {
+            throw new IllegalStateException("No more events after END_DOCUMENT");
+        }
+        if (eventType == END_ELEMENT) {
+            depth--;
+            namespaceCount = namespaceStart[depth];
+        }
+        if (emptyElement) {
+            emptyElement = false;
+            return eventType = END_ELEMENT;
+        }
+        text = null;
+        scanStart = -1;
+        while (true) {
+            mark = pos;
+            if (!ensure(1)) {
+                if (depth > 0) {
+                    throw malformed("XML document structures must start and end within the same entity.");
+                } else if (!seenRootElement) {
+                    throw malformed("Premature end of file.");
+                }
+                return eventType = END_DOCUMENT;
+            }
+            if (buffer.get(pos) != '<') {
+                scanText();
+                if (depth > 0) {
+                    return eventType = CHARACTERS;
+                } else if (!whitespace) {
+                    throw malformed("Content is not allowed outside the root element.");
+                }
+                continue;
+            }
+            if (!ensure(2)) {
+                throw malformed("XML document structures must start and end within the same entity.");
+            }
+            byte b = buffer.get(pos + 1);
+            if (b == '/') {
+                scanEndTag();
+                return eventType = END_ELEMENT;
+            } else if (b == '?') {
+                scanUntil("?>");
+            } else if (b == '!') {
+                if (lookingAt("<!--")) {
+                    int end = scanUntil("-->");
+                    setText(mark + 4, end, RAW);
+                    return eventType = COMMENT;
+                } else if (lookingAt("<![CDATA[")) {
+                    if (depth == 0) {
+                        throw malformed("CDATA is not allowed outside the root element.");
+                    }
+                    int end = scanUntil("]]>");
+                    setText(mark + 9, end, RAW);
+                    return eventType = CDATA;
+                } else if (lookingAt("<!DOCTYPE")) {
+                    scanDoctype();
+                    return eventType = DTD;
+                } else {
+                    throw malformed("The markup in the document must be well-formed.");
+                }
+            } else if (depth == 0 && seenRootElement) {
+                throw malformed("The markup in the document following the root element must be well-formed.");
+            } else {
+                scanStartTag();
+                return eventType = START_ELEMENT;
+            }
+        }
+    }
+
+    @Override
+    public int getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public QualifiedName getName() {
+        return name;
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        return namespaceCount - namespaceStart[depth - 1];
+    }
+
+    @Override
+    public Namespace getNamespace(int index) {
+        int i = namespaceStart[depth - 1] + index;
+        return names.namespace(namespaceUris[i], namespacePrefixes[i]);
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+
+    @Override
+    public QualifiedName getAttributeName(int index) {
+        return attributeQualifiedNames[index];
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        return decode(mark + attributeValueStart[index], mark + attributeValueEnd[index], ATTRIBUTE);
+    }
+
+    @Override
+    public String getText() {
+        if (text == null) {
+            text = decode(mark + textStart, mark + textEnd, textMode);
+        }
+        return text;
+    }
+
+    boolean isWhitespace() {
+        return eventType == CHARACTERS && whitespace;
+    }
+
+    boolean isLatin1() {
+        return latin1;
+    }
+
+    /**
+     * The offset of the first byte of the current event, for example the '&lt;' of a start tag
+     */
+    @Override
+    public long getEventOffset() {
+        return bufferOffset + mark;
+    }
+
+    /**
+     * Continues reading at <code>offset</code> of a memory mapped file. The open elements
+     * and the namespaces they declare are kept, so an {@link XmlIterator} can read the
+     * start tags of the ancestors of an {@link XmlCheckpoint} before it resumes.
+     */
+    void seek(long offset) {
+        if (!(input instanceof MappedInput)) {
+            throw new IllegalStateException("Can only seek in memory mapped files");
+        }
+        try {
+            buffer = ((MappedInput) input).window(offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        limit = buffer.limit();
+        bufferOffset = offset;
+        pos = mark = lineScanPos = lineStart = 0;
+        characterCount = -1;
+        endOfInput = false;
+        emptyElement = false;
+        text = null;
+    }
+
+    /**
+     * Seeks to the end of an element of the document, which is at <code>lineNumber</code>
+     */
+    void resume(long offset, int lineNumber) {
+        seek(offset);
+        this.lineNumber = lineNumber;
+        this.seenRootElement = true;
+    }
+
+    /**
+     * True if {@link #next()} can read the next event from the bytes that are already in
+     * the buffer, so {@link XmlPushParser} only asks for events that have been fed in full.
+     * Whitespace and processing instructions outside the root element are skipped by
+     * next(), so they must be followed by a complete event too.
+     *
+     * <p>When the event is incomplete, the scan continues where it stopped on the next
+     * call, so an event that arrives in many small pieces is only scanned once.
+     */
+    boolean hasCompleteEvent() {
+        if (endOfInput || emptyElement || eventType == END_DOCUMENT) {
+            return true;
+        }
+        int level = eventType == END_ELEMENT ? depth - 1 : depth;
+        int p = scanStart >= 0 ? scanStart : pos;
+        while (true) {
+            if (p >= limit) {
+                return incomplete(p, p);
+            }
+            if (buffer.get(p) != '<') {
+                int end = indexOf(resumeFrom(p, p), "<");
+                if (end < 0) {
+                    return incomplete(p, limit);
+                } else if (level > 0) {
+                    return true;
+                }
+                for (int i = p; i < end; i++) {
+                    if (!isWhitespace(buffer.get(i))) {
+                        return true;
+                    }
+                }
+                p = end;
+            } else if (p + 1 >= limit) {
+                return incomplete(p, p);
+            } else if (buffer.get(p + 1) == '?') {
+                int end = indexOf(resumeFrom(p, p + 2), "?>");
+                if (end < 0) {
+                    return incomplete(p, limit - 1);
+                }
+                p = end + 2;
+            } else if (buffer.get(p + 1) == '!') {
+                if (p + 4 > limit) {
+                    return incomplete(p, p);
+                } else if (buffer.get(p + 2) == '-') {
+                    return indexOf(resumeFrom(p, p + 4), "-->") >= 0 || incomplete(p, limit - 2);
+                } else if (p + 9 > limit) {
+                    return incomplete(p, p);
+                } else if (buffer.get(p + 2) == '[') {
+                    return indexOf(resumeFrom(p, p + 9), "]]>") >= 0 || incomplete(p, limit - 2);
+                }
+                return hasTagEnd(p, true);
+            } else {
+                return hasTagEnd(p, false);
+            }
+        }
+    }
+
+    /**
+     * Where to search from for the end of the event at <code>start</code>, skipping the
+     * bytes that an earlier call has already searched
+     */
+    private int resumeFrom(int start, int from) {
+        return start == scanStart ? Math.max(from, scanResume) : from;
+    }
+
+    private boolean incomplete(int start, int resume) {
+        scanStart = start;
+        scanResume = resume;
+        scanQuote = 0;
+        scanLevel = 0;
+        return false;
+    }
+
+    /**
+     * True if the '&gt;' which ends the tag at <code>from</code> has arrived, skipping quoted
+     * values and, for a DOCTYPE, the internal subset in brackets. Continues an earlier
+     * scan of the same tag.
+     */
+    private boolean hasTagEnd(int from, boolean brackets) {
+        boolean resuming = from == scanStart;
+        int level = resuming ? scanLevel : 0;
+        byte quote = resuming ? scanQuote : 0;
+        for (int i = resuming ? Math.max(from + 1, scanResume) : from + 1; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (brackets && b == '[') {
+                level++;
+            } else if (brackets && b == ']') {
+                level--;
+            } else if (b == '>' && level == 0) {
+                return true;
+            }
+        }
+        incomplete(from, limit);
+        scanQuote = quote;
+        scanLevel = level;
+        return false;
+    }
+
+    private int indexOf(int from, String s) {
+        for (int i = from; i + s.length() <= limit; i++) {
+            int j = 0;
+            while (j < s.length() && buffer.get(i + j) == s.charAt(j)) {
+                j++;
+            }
+            if (j == s.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads more bytes from the input into the buffer, for {@link XmlPushParser} when more
+     * have been fed. Returns false, and takes this as the end of the input, if there are none.
+     */
+    boolean readMore() {
+        return fill();
+    }
+
+    /**
+     * Called on START_ELEMENT to move to the element's END_ELEMENT without reporting
+     * anything in between. The content is only scanned for tags, so it's much faster
+     * than reading the events, but errors in the skipped content may go unnoticed.
+     */
+    @Override
+    public void skipElement() {
+        if (eventType != START_ELEMENT) {
+            throw new IllegalStateException("Can only skip elements from START_ELEMENT, was " + eventType);
+        }
+        if (emptyElement) {
+            emptyElement = false;
+        } else {
+            int level = 1;
+            while (level > 0) {
+                skipUntil((byte) '<');
+                mark = pos;
+                require(2);
+                byte b = buffer.get(pos + 1);
+                if (b == '/') {
+                    scanUntil(">");
+                    level--;
+                } else if (b == '?') {
+                    scanUntil("?>");
+                } else if (lookingAt("<!--")) {
+                    scanUntil("-->");
+                } else if (lookingAt("<![CDATA[")) {
+                    scanUntil("]]>");
+                } else if (skipStartTag()) {
+                    level++;
+                }
+            }
+        }
+        name = openNames[depth - 1];
+        text = null;
+        eventType = END_ELEMENT;
+    }
+
+    /**
+     * Returns false if the tag was an empty element tag
+     */
+    private boolean skipStartTag() {
+        while (true) {
+            require(1);
+            byte b = buffer.get(pos++);
+            if (b == '"' || b == '\'') {
+                skipUntil(b);
+                pos++;
+            } else if (b == '>') {
+                return buffer.get(pos - 2) != '/';
+            }
+        }
+    }
+
+    /**
+     * Moves to the next occurrence of <code>b</code>, without keeping the bytes before it
+     */
+    private void skipUntil(byte b) {
+        while (true) {
+            int i = pos;
+            int end = limit;
+            while (i < end && buffer.get(i) != b) {
+                i++;
+            }
+            pos = i;
+            if (i < end) {
+                return;
+            }
+            mark = pos;
+            require(1);
+        }
+    }
+
+    /**
+     * Restarts a {@link #fragment} tokenizer on the single element between
+     * <code>start</code> and <code>end</code>, with the namespaces
+     * declared by the ancestors of the element in scope
+     */
+    void range(int start, int end, Collection<Namespace> namespaces) {
+        pos = mark = lineScanPos = lineStart = start;
+        characterCount = -1;
+        limit = end;
+        lineNumber = 1;
+        eventType = START_DOCUMENT;
+        depth = 0;
+        emptyElement = false;
+        seenRootElement = false;
+        text = null;
+        namespaceCount = 0;
+        for (Namespace namespace : namespaces) {
+            declareNamespace(namespace.getPrefix(), namespace.getUri());
+        }
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public String getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public int getLineNumber() {
+        countLines(pos);
+        return lineNumber;
+    }
+
+    @Override
+    public int getColumnNumber() {
+        countLines(pos);
+        return pos - lineStart + 1;
+    }
+
+    /**
+     * The characters read so far, which are counted along with the lines, or -1 after
+     * {@link #seek(long)}, which doesn't read the start of the file
+     */
+    @Override
+    public long getCharacterOffset() {
+        countLines(pos);
+        return characterCount;
+    }
+
+    @Override
+    public long getByteOffset() {
+        return bufferOffset + pos;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (input != null) {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void scanText() {
+        boolean whitespace = true;
+        while (ensure(1)) {
+            byte b = buffer.get(pos);
+            if (b == '<') {
+                break;
+            } else if (whitespace && !isWhitespace(b)) {
+                whitespace = false;
+            }
+            pos++;
+        }
+        this.whitespace = whitespace;
+        setText(mark, pos, TEXT);
+    }
+
+    private void setText(int start, int end, int mode) {
+        this.textStart = start - mark;
+        this.textEnd = end - mark;
+        this.textMode = mode;
+    }
+
+    private void scanStartTag() {
+        pos++;
+        Symbol tagName = scanName();
+        attributeCount = 0;
+        declaredCount = 0;
+        boolean empty = false;
+        while (true) {
+            boolean separated = skipWhitespace();
+            require(1);
+            byte b = buffer.get(pos);
+            if (b == '>') {
+                pos++;
+                break;
+            } else if (b == '/') {
+                require(2);
+                if (buffer.get(pos + 1) != '>') {
+                    throw malformed("The element type \"" + tagName + "\" must be terminated by \"/>\".");
+                }
+                pos += 2;
+                empty = true;
+                break;
+            } else if (!separated) {
+                throw malformed("Element type \"" + tagName + "\" must be followed by either attribute specifications, \">\" or \"/>\".");
+            }
+            scanAttribute(tagName);
+        }
+
+        if (depth == openTags.length) {
+            openTags = Arrays.copyOf(openTags, depth * 2);
+            openNames = Arrays.copyOf(openNames, depth * 2);
+            namespaceStart = Arrays.copyOf(namespaceStart, depth * 2);
+        }
+        namespaceStart[depth] = namespaceCount;
+        for (int i = 0; i < declaredCount; i++) {
+            declareNamespace(declaredPrefixes[i], declaredUris[i]);
+        }
+        name = qualifiedName(tagName, true);
+        openTags[depth] = tagName;
+        openNames[depth] = name;
+        depth++;
+        for (int i = 0; i < attributeCount; i++) {
+            attributeQualifiedNames[i] = qualifiedName(attributeNames[i], false);
+        }
+        emptyElement = empty;
+        seenRootElement = true;
+    }
+
+    private void scanAttribute(Symbol tagName) {
+        Symbol attributeName = scanName();
+        skipWhitespace();
+        require(1);
+        if (buffer.get(pos) != '=') {
+            throw malformed("Attribute name \"" + attributeName + "\" associated with an element type \"" + tagName
+                    + "\" must be followed by the ' = ' character.");
+        }
+        pos++;
+        skipWhitespace();
+        require(1);
+        byte quote = buffer.get(pos);
+        if (quote != '"' && quote != '\'') {
+            throw malformed("Open quote is expected for attribute \"" + attributeName + "\" associated with an element type \"" + tagName + "\".");
+        }
+        pos++;
+        int valueStart = pos - mark;
+        while (true) {
+            require(1);
+            byte b = buffer.get(pos);
+            if (b == quote) {
+                break;
+            } else if (b == '<') {
+                throw malformed("The value of attribute \"" + attributeName + "\" associated with an element type \"" + tagName
+                        + "\" must not contain the '<' character.");
+            }
+            pos++;
+        }
+        int valueEnd = pos - mark;
+        pos++;
+
+        if (attributeName.isNamespaceDeclaration()) {
+            if (declaredCount == declaredPrefixes.length) {
+                declaredPrefixes = Arrays.copyOf(declaredPrefixes, declaredCount * 2);
+                declaredUris = Arrays.copyOf(declaredUris, declaredCount * 2);
+            }
+            declaredPrefixes[declaredCount] = attributeName.prefix != null ? attributeName.localName : null;
+            declaredUris[declaredCount] = decode(mark + valueStart, mark + valueEnd, ATTRIBUTE);
+            declaredCount++;
+            return;
+        }
+        for (int i = 0; i < attributeCount; i++) {
+            if (attributeNames[i].name.equals(attributeName.name)) {
+                throw malformed("Attribute \"" + attributeName + "\" was already specified for element \"" + tagName + "\".");
+            }
+        }
+        if (attributeCount == attributeNames.length) {
+            attributeNames = Arrays.copyOf(attributeNames, attributeCount * 2);
+            attributeQualifiedNames = Arrays.copyOf(attributeQualifiedNames, attributeCount * 2);
+            attributeValueStart = Arrays.copyOf(attributeValueStart, attributeCount * 2);
+            attributeValueEnd = Arrays.copyOf(attributeValueEnd, attributeCount * 2);
+        }
+        attributeNames[attributeCount] = attributeName;
+        attributeValueStart[attributeCount] = valueStart;
+        attributeValueEnd[attributeCount] = valueEnd;
+        attributeCount++;
+    }
+
+    private void declareNamespace(String prefix, String uri) {
+        if (namespaceCount == namespacePrefixes.length) {
+            namespacePrefixes = Arrays.copyOf(namespacePrefixes, namespaceCount * 2);
+            namespaceUris = Arrays.copyOf(namespaceUris, namespaceCount * 2);
+        }
+        namespacePrefixes[namespaceCount] = prefix;
+        namespaceUris[namespaceCount] = uri;
+        namespaceCount++;
+    }
+
+    private QualifiedName qualifiedName(Symbol symbol, boolean element) {
+        if (symbol.prefix == null) {
+            return names.name(element ? namespaceUri(null) : null, symbol.localName, null);
+        }
+        String uri = namespaceUri(symbol.prefix);
+        if (uri == null) {
+            throw malformed("The prefix \"" + symbol.prefix + "\" for " + (element ? "element" : "attribute")
+                    + " \"" + symbol + "\" is not bound.");
+        }
+        return names.name(uri, symbol.localName, symbol.prefix);
+    }
+
+    private String namespaceUri(String prefix) {
+        for (int i = namespaceCount - 1; i >= 0; i--) {
+            if (Objects.equals(prefix, namespacePrefixes[i])) {
+                return namespaceUris[i];
+            }
+        }
+        return "xml".equals(prefix) ? XML_NAMESPACE : null;
+    }
+
+    private void scanEndTag() {
+        pos += 2;
+        Symbol tagName = scanName();
+        skipWhitespace();
+        require(1);
+        if (buffer.get(pos) != '>') {
+            throw malformed("The end-tag for element type \"" + tagName + "\" must end with a '>' delimiter.");
+        }
+        pos++;
+        if (depth == 0 || (openTags[depth - 1] != tagName && !openTags[depth - 1].name.equals(tagName.name))) {
+            Symbol expected = depth > 0 ? openTags[depth - 1] : tagName;
+            throw malformed("The element type \"" + expected + "\" must be terminated by the matching end-tag \"</" + expected + ">\".");
+        }
+        name = openNames[depth - 1];
+    }
+
+    private void scanDoctype() {
+        pos += "<!DOCTYPE".length();
+        int brackets = 0;
+        byte quote = 0;
+        while (true) {
+            require(1);
+            byte b = buffer.get(pos++);
+            if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '[') {
+                brackets++;
+            } else if (b == ']') {
+                brackets--;
+            } else if (b == '>' && brackets == 0) {
+                break;
+            }
+        }
+        setText(mark, pos, RAW);
+    }
+
+    private Symbol scanName() {
+        int start = pos - mark;
+        int hash = 0;
+        while (ensure(1)) {
+            byte b = buffer.get(pos);
+            if ((b <= ' ' && b >= 0) || b == '/' || b == '>' || b == '=' || b == '?') {
+                break;
+            }
+            hash = 31 * hash + b;
+            pos++;
+        }
+        start += mark;
+        int length = pos - start;
+        if (length == 0) {
+            throw malformed("The markup in the document must be well-formed.");
+        }
+        int index = (hash ^ (hash >>> 16)) & (symbols.length - 1);
+        Symbol symbol = symbols[index];
+        if (symbol == null || !symbol.matches(buffer, start, length)) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(start + i);
+            }
+            symbol = new Symbol(bytes, decode(start, pos, RAW));
+            symbols[index] = symbol;
+        }
+        return symbol;
+    }
+
+    private boolean skipWhitespace() {
+        boolean skipped = false;
+        while (ensure(1) && isWhitespace(buffer.get(pos))) {
+            pos++;
+            skipped = true;
+        }
+        return skipped;
+    }
+
+    /**
+     * Moves past the terminator and returns the position where it started
+     */
+    private int scanUntil(String terminator) {
+        byte first = (byte) terminator.charAt(0);
+        while (true) {
+            if (!ensure(terminator.length())) {
+                throw malformed("XML document structures must start and end within the same entity.");
+            }
+            if (buffer.get(pos) == first && lookingAt(terminator)) {
+                int end = pos;
+                pos += terminator.length();
+                return end;
+            }
+            pos++;
+        }
+    }
+
+    private boolean lookingAt(String s) {
+        if (!ensure(s.length())) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer.get(pos + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+
+    private void require(int n) {
+        if (!ensure(n)) {
+            throw malformed("XML document structures must start and end within the same entity.");
+        }
+    }
+
+    private boolean ensure(int n) {
+        while (pos + n > limit) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean fill() {
+        if (endOfInput) {
+            return false;
+        }
+        countLines(mark);
+        int shift = mark;
+        int kept = limit - mark;
+        try {
+            buffer = input.fill(buffer, mark);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        limit = buffer.limit();
+        pos -= shift;
+        if (scanStart >= 0) {
+            scanStart -= shift;
+            scanResume -= shift;
+        }
+        lineScanPos -= shift;
+        lineStart -= shift;
+        bufferOffset += shift;
+        mark = 0;
+        if (limit == kept) {
+            endOfInput = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void countLines(int end) {
+        long characters = 0;
+        for (int i = lineScanPos; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                lineNumber++;
+                lineStart = i + 1;
+            }
+            characters += latin1 ? 1 : UTF8_CHARS[b & 0xFF];
+        }
+        if (characterCount >= 0) {
+            characterCount += characters;
+        }
+        if (end > lineScanPos) {
+            lineScanPos = end;
+        }
+    }
+
+    private MalformedXMLException malformed(String message) {
+        return new MalformedXMLException(message, getLineNumber());
+    }
+
+    private String decode(int start, int end, int mode) {
+        charCount = 0;
+        int i = start;
+        while (i < end) {
+            byte b = buffer.get(i);
+            if (b < 0) {
+                i = latin1 ? appendLatin1(i) : appendUtf8(i, end);
+            } else if (b == '&' && mode != RAW) {
+                i = appendReference(i + 1, end);
+            } else if (b == '\r') {
+                append(mode == ATTRIBUTE ? ' ' : '\n');
+                i++;
+                if (i < end && buffer.get(i) == '\n') i++;
+            } else if (mode == ATTRIBUTE && (b == '\n' || b == '\t')) {
+                append(' ');
+                i++;
+            } else {
+                append((char) b);
+                i++;
+            }
+        }
+        return new String(chars, 0, charCount);
+    }
+
+    private int appendLatin1(int i) {
+        append((char) (buffer.get(i) & 0xff));
+        return i + 1;
+    }
+
+    private int appendUtf8(int i, int end) {
+        int b = buffer.get(i) & 0xff;
+        if (b >= 0xC2 && b < 0xE0 && i + 1 < end) {
+            append((char) (((b & 0x1F) << 6) | continuation(i + 1)));
+            return i + 2;
+        } else if (b >= 0xE0 && b < 0xF0 && i + 2 < end) {
+            append((char) (((b & 0x0F) << 12) | (continuation(i + 1) << 6) | continuation(i + 2)));
+            return i + 3;
+        } else if (b >= 0xF0 && b < 0xF5 && i + 3 < end) {
+            appendCodePoint(((b & 0x07) << 18) | (continuation(i + 1) << 12) | (continuation(i + 2) << 6) | continuation(i + 3));
+            return i + 4;
+        }
+        throw malformed("Invalid byte 1 of UTF-8 sequence: 0x" + Integer.toHexString(b));
+    }
+
+    private int continuation(int i) {
+        int b = buffer.get(i) & 0xff;
+        if ((b & 0xC0) != 0x80) {
+            throw malformed("Invalid continuation byte in UTF-8 sequence: 0x" + Integer.toHexString(b));
+        }
+        return b & 0x3F;
+    }
+
+    private int appendReference(int start, int end) {
+        int semicolon = start;
+        while (semicolon < end && buffer.get(semicolon) != ';') {
+            semicolon++;
+        }
+        if (semicolon == end) {
+            throw malformed("The entity name must immediately be followed by the ';' delimiter.");
+        }
+        if (semicolon > start && buffer.get(start) == '#') {
+            boolean hex = semicolon > start + 1 && buffer.get(start + 1) == 'x';
+            int radix = hex ? 16 : 10;
+            int codePoint = 0;
+            int digitsStart = start + (hex ? 2 : 1);
+            for (int i = digitsStart; i < semicolon; i++) {
+                int digit = Character.digit(buffer.get(i), radix);
+                if (digit < 0 || codePoint > Character.MAX_CODE_POINT) {
+                    throw malformed("Invalid character reference &" + decode(start, semicolon, RAW) + ";");
+                }
+                codePoint = codePoint * radix + digit;
+            }
+            if (digitsStart == semicolon || !Character.isValidCodePoint(codePoint)) {
+                throw malformed("Invalid character reference");
+            }
+            appendCodePoint(codePoint);
+        } else if (equals(start, semicolon, "lt")) {
+            append('<');
+        } else if (equals(start, semicolon, "gt")) {
+            append('>');
+        } else if (equals(start, semicolon, "amp")) {
+            append('&');
+        } else if (equals(start, semicolon, "quot")) {
+            append('"');
+        } else if (equals(start, semicolon, "apos")) {
+            append('\'');
+        } else {
+            int length = charCount;
+            String entity = decode(start, semicolon, RAW);
+            charCount = length;
+            throw malformed("The entity \"" + entity + "\" was referenced, but not declared.");
+        }
+        return semicolon + 1;
+    }
+
+    private boolean equals(int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer.get(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(char c) {
+        if (charCount == chars.length) {
+            chars = Arrays.copyOf(chars, charCount * 2);
+        }
+        chars[charCount++] = c;
+    }
+
+    private void appendCodePoint(int codePoint) {
+        if (Character.isBmpCodePoint(codePoint)) {
+            append((char) codePoint);
+        } else {
+            append(Character.highSurrogate(codePoint));
+            append(Character.lowSurrogate(codePoint));
+        }
+    }
+
+}
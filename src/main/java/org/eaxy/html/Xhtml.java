@@ -26,6 +26,10 @@ public class Xhtml extends Document {
         return new HtmlForm(select(filter));
     }
 
+    /**
+     * Finds the element with the id, which is looked up instead of searched for
+     * when the document was indexed with {@link #indexIds()}
+     */
     public Element findById(String id) {
         return select(ElementFilters.attrFilter("id", id));
     }
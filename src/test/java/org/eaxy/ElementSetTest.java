@@ -0,0 +1,133 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class ElementSetTest {
+
+    private final List<String> visited = new ArrayList<>();
+
+    private final Document doc = Xml.xml("<html><body>"
+            + "<div id=\"a\"><p>one</p><div id=\"b\"><p>two</p></div></div>"
+            + "<p>three</p><table><tr><td><p>four</p></td></tr></table>"
+            + "</body></html>");
+
+    private ElementFilter visiting(String tagName) {
+        return new ElementFilter(tagName) {
+            @Override
+            public boolean matches(Element element) {
+                visited.add(element.tagName() + (element.id() != null ? "#" + element.id() : ""));
+                return element.tagName().equals(tagName);
+            }
+        };
+    }
+
+    @Test
+    public void shouldStopAtFirstMatch() {
+        assertThat(doc.find("...", visiting("p")).first().text()).isEqualTo("one");
+        assertThat(visited).containsExactly("body", "div#a", "p");
+
+        visited.clear();
+        assertThat(doc.find("...", "div", visiting("div")).isPresent()).isTrue();
+        assertThat(visited).containsExactly("p", "div#b");
+    }
+
+    @Test
+    public void shouldStopAtSecondMatchForSingle() {
+        assertThat(doc.find("...", visiting("table")).single().tagName()).isEqualTo("table");
+        assertThat(visited).containsExactly("body", "div#a", "p", "div#b", "p", "p", "table", "tr", "td", "p");
+
+        visited.clear();
+        assertThatThrownBy(() -> doc.find("...", "div").single())
+            .hasMessage("Too many matches for <...//div/.>: [...<div id=\"a\">...</div>@1, ...<div id=\"b\">...</div>@1]");
+    }
+
+    @Test
+    public void shouldFindAllMatchesForSize() {
+        ElementSet divs = doc.find("...", visiting("div"));
+        assertThat(visited).isEmpty();
+        assertThat(divs.size()).isEqualTo(2);
+        assertThat(divs.ids()).containsExactly("a", "b");
+        assertThat(divs.get(1).id()).isEqualTo("b");
+        assertThat(visited).hasSize(10);
+    }
+
+    @Test
+    public void shouldReportMissingPathWhenEvaluatedLazily() {
+        assertThatThrownBy(() -> doc.find("body", "div", "span", "p").first())
+            .isInstanceOf(NonMatchingPathException.class)
+            .hasMessage("Can't find <span> below [<html>...</html>@1, body, div]."
+                    + " Actual elements: [<p>...</p>@1, <div id=\"b\">...</div>@1]");
+        assertThat(doc.find("body", "*", 2, "tr").single().tagName()).isEqualTo("tr");
+        assertThat(doc.find("body", "*", 3).isPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldStreamLazily() {
+        assertThat(doc.find("...", visiting("p")).stream().map(Element::text).filter(t -> t.startsWith("t")).findFirst())
+            .contains("two");
+        assertThat(visited).containsExactly("body", "div#a", "p", "div#b", "p");
+    }
+
+    @Test
+    public void shouldFindDescendantsInParallelInDocumentOrder() {
+        Element root = Xml.el("records");
+        for (int i = 0; i < 50; i++) {
+            Element group = Xml.el("group", Xml.attr("id", "g" + i));
+            for (int j = 0; j < 20; j++) {
+                group.add(Xml.el("record", Xml.attr("id", i + "-" + j), Xml.el("name", "Record " + i + "-" + j)));
+            }
+            root.add(i % 10 == 0 ? Xml.el("wrapper", Xml.el("wrapper", group)) : group);
+        }
+        Document large = new Document(Xml.el("top", root));
+        Object[][] paths = {
+                { "...", "record" },
+                { "...", "name" },
+                { "...", "group", "record" },
+                { "...", "wrapper", "...", "name" },
+                { "records", "...", "record" },
+                { "...", "[id=7-7]" },
+                { "...", "missing" },
+        };
+        for (Object[] path : paths) {
+            List<Element> expected = large.find(path).elements();
+            assertThat(large.find(path).parallelStream().collect(Collectors.toList()))
+                .as(Arrays.toString(path)).isEqualTo(expected);
+            assertThat(large.find(path).stream().collect(Collectors.toList()))
+                .as(Arrays.toString(path)).isEqualTo(expected);
+            assertThat(large.find(path).parallelStream().unordered().count())
+                .as(Arrays.toString(path)).isEqualTo(expected.size());
+        }
+
+        ElementSet records = large.find("...", "record");
+        assertThat(records.first().id()).isEqualTo("0-0");
+        assertThat(records.parallelStream().map(Element::id).collect(Collectors.toList()))
+            .hasSize(1000).startsWith("0-0", "0-1").endsWith("49-19");
+    }
+
+    @Test
+    public void shouldFindDescendantsInDeepDocument() {
+        Element root = Xml.el("level");
+        Element parent = root;
+        for (int i = 0; i < 100000; i++) {
+            Element child = Xml.el(i % 1000 == 999 ? "marked" : "level");
+            parent.add(child);
+            parent = child;
+        }
+        parent.add(Xml.el("leaf", "bottom"));
+        ElementSet leaves = new Document(root).find("...", "leaf");
+        assertThat(leaves.single().text()).isEqualTo("bottom");
+        assertThat(leaves.firstPath().getPath()).hasSize(100002);
+        assertThat(root.find("...", "marked").size()).isEqualTo(100);
+        assertThat(root.find("...", "marked", "level").size()).isEqualTo(99);
+        assertThat(root.find("...", "marked").getPaths().get(1).getParent().getParent().getPath()).hasSize(1999);
+    }
+
+}
@@ -0,0 +1,62 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class NameTableTest {
+
+    private String xml = "<a:root xmlns:a=\"uri:a\" xmlns=\"uri:default\">"
+            + "<child a:attr=\"1\" /><child a:attr=\"2\" /><a:child /></a:root>";
+
+    @Test
+    public void shouldShareNamesWithinDocument() {
+        Element root = Xml.xml(xml).getRootElement();
+        List<? extends Element> children = root.elements();
+        assertThat(children.get(0).getName()).isSameAs(children.get(1).getName());
+        assertThat(children.get(0).attrNames().iterator().next())
+            .isSameAs(children.get(1).attrNames().iterator().next());
+        assertThat(children.get(2).getName()).isNotSameAs(children.get(0).getName());
+        assertThat(children.get(2).getName().getNamespace()).isSameAs(root.getName().getNamespace());
+    }
+
+    @Test
+    public void shouldShareNamesWithNativeParser() throws Exception {
+        URL url = getClass().getResource("/medsample-mini.xml");
+        Map<QualifiedName, QualifiedName> names = new HashMap<>();
+        int elementCount = 0;
+        for (Element element : Xml.read(url, ParseOptions.nativeParser()).getRootElement().find("...", "*")) {
+            names.putIfAbsent(element.getName(), element.getName());
+            assertThat(element.getName()).isSameAs(names.get(element.getName()));
+            elementCount++;
+        }
+        assertThat(names.size()).isLessThan(elementCount);
+    }
+
+    @Test
+    public void shouldShareNamesBetweenDocuments() throws IOException {
+        NameTable names = new NameTable();
+        ParseOptions options = ParseOptions.defaults().names(names);
+        Element first = Xml.read(new StringReader(xml), options).getRootElement();
+        Element second = Xml.read(new StringReader(xml), options).getRootElement();
+        assertThat(first.getName()).isSameAs(second.getName());
+        assertThat(Xml.xml(xml).getRootElement().getName()).isNotSameAs(first.getName()).isEqualTo(first.getName());
+    }
+
+    @Test
+    public void shouldKeepPrefixesApart() {
+        NameTable names = new NameTable(false);
+        assertThat(names.name("uri:a", "name", "a")).isNotSameAs(names.name("uri:a", "name", "b"));
+        assertThat(names.name("uri:a", "name", "a").print()).isEqualTo("a:name");
+        assertThat(names.name("", "name", null)).isSameAs(names.name(null, "name", ""));
+        assertThat(names.name(null, "name", null).hasNamespace()).isFalse();
+    }
+
+}
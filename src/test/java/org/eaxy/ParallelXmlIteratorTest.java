@@ -0,0 +1,121 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelXmlIteratorTest {
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static ForkJoinPool pool = new ForkJoinPool(4);
+
+    private static Path file;
+
+    private static List<String> expected = new ArrayList<>();
+
+    private static ElementQuery query = Xml.filter("...", new Namespace("uri:records").name("record"));
+
+    @BeforeClass
+    public static void readExpected() throws IOException {
+        writeFile();
+        for (Element element : query.iterate(file)) {
+            expected.add(element.toXML());
+        }
+        assertThat(expected).hasSize(3000);
+    }
+
+    private static void writeFile() throws IOException {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<r:records xmlns:r=\"uri:records\" xmlns=\"uri:default\">\n");
+        for (int group = 0; group < 3; group++) {
+            xml.append("<group id=\"" + group + "\"" + (group == 1 ? " xmlns:r=\"uri:records\" xmlns=\"uri:other\"" : "") + ">\n");
+            for (int i = 0; i < 1000; i++) {
+                xml.append("  <r:record id=\"" + group + "-" + i + "\" note='a &amp; b'><name>Record ")
+                    .append(i)
+                    .append(" &lt;æøå&gt;</name><!-- comment <r:record> --><![CDATA[</r:record>]]>")
+                    .append(i % 10 == 0 ? "<r:record nested=\"true\"/>" : "<empty/>")
+                    .append("</r:record>\n");
+            }
+            xml.append("  <other><r:ignored/></other>\n");
+            xml.append("</group>\n");
+        }
+        xml.append("</r:records>\n");
+        file = folder.newFile("records.xml").toPath();
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterClass
+    public static void shutdownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldReturnElementsInDocumentOrder() {
+        assertThat(query.iterate(file, ParseOptions.nativeParser().parallel(pool)))
+            .extracting(e -> e.toXML())
+            .containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    public void shouldReturnElementsAsTheyAreParsed() {
+        assertThat(query.iterate(file, ParseOptions.nativeParser().parallel(pool).ordered(false)))
+            .extracting(e -> e.toXML())
+            .containsExactlyInAnyOrderElementsOf(expected);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldCancelBatchesWhenClosedEarly() {
+        for (boolean ordered : new boolean[] { true, false }) {
+            XmlIterator iterator = query.iterate(file, ParseOptions.nativeParser().parallel(pool).ordered(ordered)).iterator();
+            assertThat(expected).contains(iterator.next().toXML());
+            iterator.close();
+            assertThat(iterator.hasNext()).isFalse();
+            assertThat(pool.awaitQuiescence(5, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldKeepNamespacesFromAncestors() {
+        Element first = query.iterate(file, ParseOptions.nativeParser().parallel(pool)).iterator().next();
+        assertThat(first.getName().getNamespace().getUri()).isEqualTo("uri:records");
+        assertThat(first.find("name").single().getName().getNamespace().getUri()).isEqualTo("uri:default");
+    }
+
+    @Test
+    public void shouldProjectElementsInParallel() {
+        ParseOptions options = ParseOptions.nativeParser().project("name");
+        List<String> names = new ArrayList<>();
+        for (Element element : query.iterate(file, options)) {
+            names.add(element.toXML());
+        }
+        assertThat(query.iterate(file, options.parallel(pool)))
+            .extracting(e -> e.toXML())
+            .containsExactlyElementsOf(names)
+            .hasSize(3000)
+            .allMatch(xml -> xml.contains(">Record ") && !xml.contains("CDATA") && !xml.contains("nested"));
+    }
+
+    @Test
+    public void shouldRequireNativeParser() {
+        assertThatThrownBy(() -> query.iterate(file, ParseOptions.defaults().parallel(pool)).iterator())
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
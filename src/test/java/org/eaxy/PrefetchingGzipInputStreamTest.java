@@ -0,0 +1,169 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PrefetchingGzipInputStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ForkJoinPool pool = new ForkJoinPool(4);
+
+    private static byte[] content = createContent();
+
+    private static byte[] createContent() {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<records>\n");
+        for (int i = 0; i < 20000; i++) {
+            xml.append("  <record id=\"" + i + "\"><name>Record " + i + " æøå</name></record>\n");
+        }
+        return xml.append("</records>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void shouldInflateSingleMember() throws IOException {
+        assertThat(inflate(gzip(content))).isEqualTo(content);
+    }
+
+    @Test
+    public void shouldInflateConcatenatedMembers() throws IOException {
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        members.write(gzip(Arrays.copyOfRange(content, 0, 1000)));
+        members.write(gzip(Arrays.copyOfRange(content, 1000, content.length)));
+        assertThat(inflate(members.toByteArray())).isEqualTo(content);
+    }
+
+    @Test
+    public void shouldInflateBlockedMembersInParallel() throws IOException {
+        assertThat(inflate(bgzip(content))).isEqualTo(content);
+    }
+
+    @Test
+    public void shouldInflatePlainMembersAfterBlockedMembers() throws IOException {
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        members.write(bgzip(Arrays.copyOfRange(content, 0, 100000)));
+        members.write(gzip(Arrays.copyOfRange(content, 100000, content.length)));
+        assertThat(inflate(members.toByteArray())).isEqualTo(content);
+    }
+
+    @Test
+    public void shouldReportCorruptBlocks() {
+        byte[] compressed = bgzip(content);
+        compressed[compressed.length / 2] ^= 0x55;
+        assertThatThrownBy(() -> inflate(compressed)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void shouldIterateOverCompressedFile() throws IOException {
+        Path file = folder.newFile("records.xml.gz").toPath();
+        Files.write(file, bgzip(content));
+        List<String> names = new ArrayList<>();
+        for (Element record : Xml.filter("record").iterate(file, ParseOptions.nativeParser().parallelInflate(pool))) {
+            names.add(record.find("name").first().text());
+        }
+        assertThat(names).hasSize(20000).endsWith("Record 19999 æøå");
+        assertThat(Xml.read(file.toFile()).find("record").size()).isEqualTo(20000);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldOnlyInflateInBackgroundWhenAsked() throws IOException {
+        StringBuilder xml = new StringBuilder("<records>");
+        for (int i = 0; i < 1000000; i++) {
+            xml.append("<record id=\"" + i + "\"/>");
+        }
+        Path file = folder.newFile("records.xml.gz").toPath();
+        Files.write(file, gzip(xml.append("</records>").toString().getBytes(StandardCharsets.UTF_8)));
+        try (XmlIterable records = Xml.filter("record").iterate(file, ParseOptions.nativeParser())) {
+            assertThat(records.iterator().next().attr("id")).isEqualTo("0");
+            assertThat(gunzipThreads()).isEmpty();
+        }
+        try (XmlIterable records = Xml.filter("record").iterate(file, ParseOptions.nativeParser().parallelInflate(pool))) {
+            assertThat(records.iterator().next().attr("id")).isEqualTo("0");
+            assertThat(gunzipThreads()).isNotEmpty();
+        }
+        assertThat(gunzipThreads()).isEmpty();
+    }
+
+    private static List<Thread> gunzipThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("eaxy-gunzip-"))
+                .collect(Collectors.toList());
+    }
+
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        try (InputStream input = new PrefetchingGzipInputStream(new ByteArrayInputStream(compressed), pool)) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = input.read(buffer)) >= 0) {
+                result.write(buffer, 0, count);
+            }
+            return result.toByteArray();
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(result)) {
+            gzip.write(bytes);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Compresses like bgzip, in members of at most 64k which record their size in the header,
+     * followed by an empty member
+     */
+    private static byte[] bgzip(byte[] bytes) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        for (int start = 0; start < bytes.length; start += 0xff00) {
+            writeBlock(result, Arrays.copyOfRange(bytes, start, Math.min(bytes.length, start + 0xff00)));
+        }
+        writeBlock(result, new byte[0]);
+        return result.toByteArray();
+    }
+
+    private static void writeBlock(ByteArrayOutputStream output, byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] data = new byte[0x10000];
+        int length = deflater.deflate(data);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        int blockSize = 18 + length + 8;
+        output.write(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+                (byte) (blockSize - 1), (byte) ((blockSize - 1) >> 8) }, 0, 18);
+        output.write(data, 0, length);
+        writeInt(output, (int) crc.getValue());
+        writeInt(output, bytes.length);
+    }
+
+    private static void writeInt(ByteArrayOutputStream output, int value) {
+        for (int i = 0; i < 4; i++) {
+            output.write(value >> (8 * i));
+        }
+    }
+
+}
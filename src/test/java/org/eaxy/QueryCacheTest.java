@@ -0,0 +1,61 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+    private final AtomicInteger compiled = new AtomicInteger();
+
+    private ElementQuery compile(Object[] path) {
+        compiled.incrementAndGet();
+        return ElementFilters.create(path);
+    }
+
+    @Test
+    public void shouldCompileEachPathOnce() {
+        QueryCache cache = new QueryCache(10);
+        ElementQuery query = cache.get(new Object[] { "a", "b.c", "x[y=z]" }, this::compile);
+        assertThat(cache.get(new Object[] { "a", "b.c", "x[y=z]" }, this::compile)).isSameAs(query);
+        assertThat(cache.get(new Object[] { "a", "b.c", "x[y=w]" }, this::compile)).isNotSameAs(query);
+        assertThat(compiled).hasValue(2);
+    }
+
+    @Test
+    public void shouldKeepRecentlyUsedPaths() {
+        QueryCache cache = new QueryCache(8);
+        ElementQuery query = cache.get(new Object[] { "recent" }, this::compile);
+        for (int i = 0; i < 100; i++) {
+            cache.get(new Object[] { "path" + i, i }, this::compile);
+            assertThat(cache.get(new Object[] { "recent" }, this::compile)).isSameAs(query);
+            assertThat(cache.size()).isLessThanOrEqualTo(8);
+        }
+        assertThat(compiled).hasValue(101);
+    }
+
+    @Test
+    public void shouldStayWithinMaxSizeWhenAllPathsAreUsed() {
+        QueryCache cache = new QueryCache(8);
+        for (int i = 0; i < 100; i++) {
+            cache.get(new Object[] { "path" + i }, this::compile);
+            for (int j = Math.max(0, i - 7); j <= i; j++) {
+                cache.get(new Object[] { "path" + j }, this::compile);
+            }
+            assertThat(cache.size()).isLessThanOrEqualTo(8);
+        }
+        assertThat(cache.size()).isGreaterThanOrEqualTo(6);
+    }
+
+    @Test
+    public void shouldOnlyCacheStringsAndPositions() {
+        assertThat(QueryCache.isCacheable(new Object[] { "a", 1, "...", "b#c" })).isTrue();
+        assertThat(QueryCache.isCacheable(new Object[] { "a", new QualifiedName("b") })).isFalse();
+        assertThat(QueryCache.isCacheable(new Object[] { new StringBuilder("a") })).isFalse();
+        assertThat(QueryCache.isCacheable(new Object[0])).isFalse();
+        assertThat(ElementFilters.create("a", "b.c")).isSameAs(ElementFilters.create("a", "b.c"));
+    }
+
+}
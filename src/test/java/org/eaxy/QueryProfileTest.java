@@ -0,0 +1,94 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class QueryProfileTest {
+
+    private static final String XML = "<html><body>"
+            + "<div id=\"a\"><p>one</p><div id=\"b\"><p>two</p></div></div>"
+            + "<p>three</p><table><tr><td><p>four</p></td></tr></table>"
+            + "</body></html>";
+
+    private final Document doc = Xml.xml(XML);
+
+    private ElementSet root() {
+        return new ElementSet(doc.getRootElement());
+    }
+
+    @Test
+    public void shouldCountVisitsAndMatchesOfEachStep() {
+        QueryProfile profile = root().profile("body", "div", "p");
+        assertThat(profile.getResults()).isEqualTo(1);
+        assertThat(profile.getSteps()).extracting(QueryProfile.Step::getQuery).containsExactly("body", "div", "p");
+        assertThat(profile.getSteps()).extracting(QueryProfile.Step::getKind).containsExactly("child", "child", "child");
+        assertThat(profile.getSteps()).extracting(QueryProfile.Step::getVisited).containsExactly(1L, 3L, 2L);
+        assertThat(profile.getSteps()).extracting(QueryProfile.Step::getMatched).containsExactly(1L, 1L, 1L);
+        assertThat(profile.getSteps()).extracting(QueryProfile.Step::getPathsCreated).containsExactly(1L, 1L, 1L);
+
+        QueryProfile position = root().profile("body", "*", 2);
+        assertThat(position.getSteps()).extracting(QueryProfile.Step::getKind).containsExactly("child", "child", "position");
+        assertThat(position.getSteps().get(2).getMatched()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCountDescendantSearch() {
+        QueryProfile profile = root().profile("...", "p");
+        assertThat(profile.getPlan()).isEqualTo("...//p/.");
+        assertThat(profile.getResults()).isEqualTo(4);
+        QueryProfile.Step step = profile.getSteps().get(0);
+        assertThat(step.getKind()).isEqualTo("descendant");
+        assertThat(step.getIndexedName()).isEqualTo("p");
+        assertThat(step.getVisited()).isEqualTo(10);
+        assertThat(step.getMatched()).isEqualTo(4);
+        assertThat(step.getPathsCreated()).isEqualTo(10);
+        assertThat(step.getNanos()).isPositive();
+        assertThat(profile.getNanos()).isGreaterThanOrEqualTo(step.getNanos());
+
+        doc.indexTagNames();
+        QueryProfile indexed = root().profile("...", "p");
+        assertThat(indexed.getSteps().get(0).getVisited()).isEqualTo(4);
+        assertThat(indexed.getResults()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldProfileQueryUsedWithFind() {
+        QueryProfile profile = Xml.filter("...", "div", "p").profile();
+        assertThat(doc.find(profile).texts()).containsExactly("one", "two");
+        assertThat(doc.find(profile).first().text()).isEqualTo("one");
+        assertThat(profile.getResults()).isEqualTo(3);
+        assertThat(profile.getSteps()).extracting(QueryProfile.Step::getKind).containsExactly("descendant", "child");
+    }
+
+    @Test
+    public void shouldProfileIteration() {
+        QueryProfile profile = Xml.filter("...", "p").profile();
+        List<String> texts = new ArrayList<>();
+        for (Element element : profile.iterate(new StringReader(XML))) {
+            texts.add(element.text());
+        }
+        assertThat(texts).containsExactly("one", "two", "three", "four");
+        assertThat(profile.getResults()).isEqualTo(4);
+        QueryProfile.Step step = profile.getSteps().get(0);
+        assertThat(step.isMatchedOnName()).isTrue();
+        assertThat(step.getVisited()).isEqualTo(10);
+        assertThat(step.getMatched()).isEqualTo(4);
+        assertThat(step.getPathsCreated()).isZero();
+    }
+
+    @Test
+    public void shouldWriteJson() {
+        QueryProfile profile = root().profile("...", "div[id=b]");
+        assertThat(profile.toJson()).matches("\\{\"plan\":\"...//div\\[id=b\\]/.\",\"results\":1,\"nanos\":\\d+,"
+                + "\"steps\":\\[\\{\"query\":\"div\\[id=b\\]\",\"kind\":\"descendant\",\"indexedName\":\"div\","
+                + "\"indexedAttribute\":\"id=b\",\"matchedOnName\":false,\"visited\":10,\"matched\":1,"
+                + "\"pathsCreated\":3,\"nanos\":\\d+\\}\\]\\}");
+        assertThat(Xml.filter("p[title=\"x\"]").profile().toJson()).contains("\"plan\":\"p[title=\\\"x\\\"]\"");
+    }
+
+}
@@ -0,0 +1,112 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class XmlPushParserTest {
+
+    private static final String XML = "﻿<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!DOCTYPE records [ <!ENTITY x \"a > b\"> ]>\n"
+            + "<?pi with > inside ?>\n"
+            + "<r:records xmlns:r=\"uri:records\" xmlns=\"uri:default\">\n"
+            + "  <!-- a --comment-- <r:record> -->\n"
+            + "  <r:record id=\"1\" note='a &gt; b'><name>Record æøå €</name><![CDATA[</r:record>]]></r:record>\n"
+            + "  <group><r:record id=\"2\"><r:record nested=\"true\"/></r:record></group>\n"
+            + "  <r:record id=\"3\"/>\n"
+            + "</r:records>\n";
+
+    private static final ElementQuery QUERY = Xml.filter("...", new Namespace("uri:records").name("record"));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReturnMatchesInAnyChunkSize() throws IOException {
+        byte[] bytes = XML.getBytes(StandardCharsets.UTF_8);
+        Path file = folder.newFile("records.xml").toPath();
+        Files.write(file, bytes);
+        List<String> expected = new ArrayList<>();
+        for (Element element : QUERY.iterate(file, ParseOptions.nativeParser())) {
+            expected.add(element.toXML());
+        }
+        assertThat(expected).hasSize(3);
+        String expectedDocument = Xml.read(file, ParseOptions.nativeParser()).getRootElement().toXML();
+
+        for (int chunkSize = 1; chunkSize <= 7; chunkSize++) {
+            XmlPushParser parser = new XmlPushParser(QUERY);
+            List<String> matches = new ArrayList<>();
+            for (int i = 0; i < bytes.length; i += chunkSize) {
+                for (Element element : parser.feed(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)))) {
+                    matches.add(element.toXML());
+                }
+            }
+            Document document = parser.endOfInput();
+            assertThat(matches).as("chunk size " + chunkSize).isEqualTo(expected);
+            assertThat(document.getRootElement().toXML()).isEqualTo(expectedDocument);
+            assertThat(document.getEncoding()).isEqualTo("UTF-8");
+        }
+    }
+
+    @Test
+    public void shouldReturnMatchAsSoonAsItEnds() {
+        XmlPushParser parser = new XmlPushParser(Xml.filter("record"));
+        assertThat(parser.feed(utf8("<records><record id=\"1\"><name>first</na"))).isEmpty();
+        assertThat(parser.feed(utf8("me></record"))).isEmpty();
+        List<Element> matches = parser.feed(utf8("><record id=\"2\">"));
+        assertThat(matches).extracting(e -> e.attr("id")).containsExactly("1");
+        assertThat(parser.feed(utf8("</record></records>"))).extracting(e -> e.attr("id")).containsExactly("2");
+        assertThat(parser.endOfInput().find("record").attrs("id")).containsExactly("1", "2");
+    }
+
+    @Test(timeout = 20000)
+    public void shouldScanLargeEventsOnceWhenFedInSmallPieces() {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            large.append((char) ('a' + i % 26));
+        }
+        String xml = "<records><record>" + large + "</record><!--" + large + "-->"
+                + "<record><![CDATA[" + large + "]]></record><record id=\"" + large + "\"/></records>";
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        XmlPushParser parser = new XmlPushParser(Xml.filter("record"));
+        List<Element> matches = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i++) {
+            matches.addAll(parser.feed(ByteBuffer.wrap(bytes, i, 1)));
+        }
+        parser.endOfInput();
+        assertThat(matches).extracting(Element::text).containsExactly(large.toString(), large.toString(), "");
+        assertThat(matches.get(2).attr("id")).isEqualTo(large.toString());
+    }
+
+    @Test
+    public void shouldUseDefaultVersionWithoutDeclaration() {
+        XmlPushParser parser = new XmlPushParser(Xml.filter("r"));
+        parser.feed(utf8("<r/>"));
+        Document document = parser.endOfInput();
+        assertThat(document.getVersion()).isEqualTo("1.0");
+        assertThat(document.toXML()).isEqualTo(Xml.xml("<r/>").toXML());
+    }
+
+    @Test
+    public void shouldRejectIncompleteDocument() {
+        XmlPushParser parser = new XmlPushParser();
+        parser.feed(utf8("<records><record>"));
+        assertThatThrownBy(parser::endOfInput).isInstanceOf(MalformedXMLException.class);
+    }
+
+    private static ByteBuffer utf8(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
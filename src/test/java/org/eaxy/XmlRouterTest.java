@@ -0,0 +1,126 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class XmlRouterTest {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<FEST xmlns=\"uri:fest\">\n"
+            + "  <KatLegemiddelpakning>\n"
+            + "    <OppfLegemiddelpakning><Id>P1</Id><Legemiddelpakning varenr=\"1\"/></OppfLegemiddelpakning>\n"
+            + "    <OppfLegemiddelpakning><Id>P2</Id><Legemiddelpakning varenr=\"2\"/></OppfLegemiddelpakning>\n"
+            + "  </KatLegemiddelpakning>\n"
+            + "  <KatInteraksjon>\n"
+            + "    <OppfInteraksjon><Id>I1</Id><Interaksjon><Relevans>Unngås</Relevans></Interaksjon></OppfInteraksjon>\n"
+            + "  </KatInteraksjon>\n"
+            + "  <KatVirkestoff>\n"
+            + "    <OppfVirkestoff><Id>V1</Id><Virkestoff navn=\"a\"/></OppfVirkestoff>\n"
+            + "    <OppfVirkestoff><Id>V2</Id><Virkestoff navn=\"b\"/></OppfVirkestoff>\n"
+            + "  </KatVirkestoff>\n"
+            + "</FEST>\n";
+
+    private static final ElementQuery[] QUERIES = {
+            Xml.filter("...", "OppfLegemiddelpakning"),
+            Xml.filter("KatInteraksjon", "OppfInteraksjon", "Interaksjon"),
+            Xml.filter("...", "Virkestoff[navn=b]"),
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldRouteEachQueryInOnePass() throws IOException {
+        Path file = folder.newFile("fest.xml").toPath();
+        Files.write(file, XML.getBytes(StandardCharsets.UTF_8));
+        List<List<String>> expected = new ArrayList<>();
+        for (ElementQuery query : QUERIES) {
+            List<String> matches = new ArrayList<>();
+            for (Element element : query.iterate(file)) {
+                matches.add(element.toXML());
+            }
+            expected.add(matches);
+        }
+        assertThat(expected).extracting(List::size).containsExactly(2, 1, 1);
+
+        assertThat(route(QUERIES, router -> router.parse(file))).isEqualTo(expected);
+        assertThat(route(QUERIES, router -> router.parse(file, ParseOptions.defaults()))).isEqualTo(expected);
+        assertThat(route(QUERIES, router -> router.parse(new StringReader(XML)))).isEqualTo(expected);
+        assertThat(route(QUERIES, router -> router.parse(file.toUri().toURL()))).isEqualTo(expected);
+
+        // Too many steps to match on the names, so the elements are built and matched instead
+        Object[] deepPath = new Object[62];
+        Arrays.fill(deepPath, "nothing");
+        ElementQuery[] withDeepPath = Arrays.copyOf(QUERIES, QUERIES.length + 1);
+        withDeepPath[QUERIES.length] = Xml.filter(deepPath);
+        expected.add(new ArrayList<>());
+        assertThat(route(withDeepPath, router -> router.parse(file))).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldRouteToFirstMatchingQuery() {
+        List<List<String>> routed = route(new ElementQuery[] { Xml.filter("...", "OppfInteraksjon"), Xml.filter("...", "Id") },
+                router -> router.parse(new StringReader(XML)));
+        assertThat(routed.get(0)).hasSize(1);
+        assertThat(routed.get(1)).extracting(xml -> Xml.xml(xml).getRootElement().text())
+            .containsExactly("P1", "P2", "V1", "V2");
+    }
+
+    @Test
+    public void shouldRouteOnChildPredicates() {
+        ElementQuery[] queries = {
+                Xml.filter("...", ElementFilters.where("OppfLegemiddelpakning", ElementFilters.childText("Id", "P2"))),
+                Xml.filter("...", ElementFilters.where("OppfVirkestoff", ElementFilters.childAttr("Virkestoff", "navn", "b"))),
+                Xml.filter("...", "OppfLegemiddelpakning"),
+                Xml.filter("...", ElementFilters.where("OppfVirkestoff", ElementFilters.hasChild("Id"))),
+        };
+        List<List<String>> routed = route(queries, router -> router.parse(new StringReader(XML)));
+        assertThat(routed).extracting(elements -> Xml.xml(elements.get(0)).getRootElement().find("Id").first().text())
+            .containsExactly("P2", "V2", "P1", "V1");
+        assertThat(routed).extracting(List::size).containsExactly(1, 1, 1, 1);
+    }
+
+    @Test
+    public void shouldRejectParallelOptions() {
+        XmlRouter router = new XmlRouter().route(QUERIES[0], element -> {});
+        assertThatThrownBy(() -> router.parse(new StringReader(XML), ParseOptions.defaults().prefetch(2)))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new XmlRouter().parse(new StringReader(XML)))
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    private interface Parse {
+        int parse(XmlRouter router) throws IOException;
+    }
+
+    private static List<List<String>> route(ElementQuery[] queries, Parse parse) {
+        List<List<String>> result = new ArrayList<>();
+        XmlRouter router = new XmlRouter();
+        for (ElementQuery query : queries) {
+            List<String> matches = new ArrayList<>();
+            result.add(matches);
+            router.route(query, element -> matches.add(element.toXML()));
+        }
+        try {
+            int count = parse.parse(router);
+            assertThat(count).isEqualTo(result.stream().mapToInt(List::size).sum());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return result;
+    }
+
+}
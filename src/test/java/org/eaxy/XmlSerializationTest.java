@@ -6,9 +6,13 @@ import static org.assertj.core.api.Assertions.assertThat;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.assertj.core.api.StringAssert;
 import org.eaxy.utils.IOUtils;
 import org.junit.Test;
@@ -44,6 +48,42 @@ public class XmlSerializationTest {
         }
     }
 
+    @Test
+    public void shouldReadWithNativeParser() throws Exception {
+        assertThat(Xml.read(xmlFile, ParseOptions.nativeParser()).toXML())
+            .isEqualTo(Xml.read(xmlFile).toXML());
+    }
+
+    @Test
+    public void shouldReadWithNativeParserAcrossBufferBoundaries() throws Exception {
+        try (InputStream input = new FilterInputStream(new FileInputStream(xmlFile)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        }) {
+            assertThat(StaxReader.read(new XmlTokenizer(input), null).toXML())
+                .isEqualTo(Xml.read(xmlFile).toXML());
+        }
+    }
+
+    @Test
+    public void shouldReadMemoryMappedFile() throws Exception {
+        assertThat(Xml.read(xmlFile.toPath()).toXML())
+            .isEqualTo(Xml.read(xmlFile).toXML());
+    }
+
+    @Test
+    public void shouldReadMemoryMappedFileInSmallWindows() throws Exception {
+        XmlTokenizer tokenizer = XmlTokenizer.map(xmlFile.toPath(), 7);
+        try {
+            assertThat(StaxReader.read(tokenizer, null).toXML())
+                .isEqualTo(Xml.read(xmlFile).toXML());
+        } finally {
+            tokenizer.close();
+        }
+    }
+
     private InputStreamReader input() throws FileNotFoundException {
         return new InputStreamReader(new FileInputStream(xmlFile));
     }
@@ -71,6 +111,58 @@ public class XmlSerializationTest {
         assertThat(elementCount).isEqualTo(Xml.read(xmlFile).find(filter).size());
     }
 
+    @Test
+    public void shouldIterateWithNativeParser() throws IOException {
+        ElementQuery filter = Xml.filter("*");
+        List<String> expected = new ArrayList<>();
+        for (Element element : Xml.read(xmlFile).find(filter)) {
+            expected.add(element.toXML());
+        }
+        assertThat(filter.iterate(xmlFile.toURI().toURL(), ParseOptions.nativeParser()))
+            .extracting(e -> e.toXML())
+            .containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    public void shouldIterateMemoryMappedFile() throws IOException {
+        ElementQuery filter = Xml.filter("*");
+        assertThat(filter.iterate(xmlFile.toPath())).hasSameSizeAs(Xml.read(xmlFile).find(filter));
+    }
+
+    @Test
+    public void shouldIterateInParallel() throws IOException {
+        ElementQuery filter = Xml.filter("*");
+        List<String> expected = new ArrayList<>();
+        for (Element element : filter.iterate(xmlFile.toPath())) {
+            expected.add(element.toXML());
+        }
+        assertThat(filter.iterate(xmlFile.toPath(), ParseOptions.nativeParser().parallel()))
+            .extracting(e -> e.toXML())
+            .containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    public void shouldIgnoreWhitespace() throws IOException {
+        Document document = Xml.read(xmlFile, ParseOptions.defaults().ignoreWhitespace(true));
+        assertThat(Xml.read(xmlFile, ParseOptions.nativeParser().ignoreWhitespace(true)).toXML())
+            .isEqualTo(document.toXML());
+        assertThat(document.find("...", "*").size()).isEqualTo(Xml.read(xmlFile).find("...", "*").size());
+        assertCompactText(document.getRootElement());
+    }
+
+    private void assertCompactText(Element element) {
+        Node previous = null;
+        for (Node node : element.children()) {
+            if (node instanceof Xml.TextElement) {
+                assertThat(node.text().toString().trim()).as("text in " + element).isNotEmpty();
+                assertThat(previous instanceof Xml.TextElement).as("text before " + node.text()).isFalse();
+            } else if (node instanceof Element) {
+                assertCompactText((Element) node);
+            }
+            previous = node;
+        }
+    }
+
     private StringAssert assertEquals(Document document, String fileContents) {
         return (StringAssert) assertThat(normalize(document.toXML()))
             .isEqualTo(normalize(fileContents));
@@ -0,0 +1,93 @@
+package org.eaxy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class XmlTokenizerTest {
+
+    @Test
+    public void shouldReadLikeStax() {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+                + "<a:root xmlns:a=\"uri:a\" xmlns=\"uri:default\" a:attr=\"one\" plain='two &amp; &#x41;&#66;'>\r\n"
+                + "  <child>text &lt;with&gt; entities, æøå and 😀</child>\n"
+                + "  <![CDATA[<not an element>]]><!-- a comment -->\n"
+                + "  <a:empty/><other xmlns=\"uri:other\" attr=\"multi\nline\"/>\n"
+                + "</a:root>";
+        assertThat(read(xml).toXML()).isEqualTo(Xml.xml(xml).toXML());
+        assertThat(read(xml).getRootElement().find("child").single().toString())
+            .isEqualTo(Xml.xml(xml).getRootElement().find("child").single().toString());
+    }
+
+    @Test
+    public void shouldReadDocTypeWithoutLoadingIt() {
+        String docType = "<!DOCTYPE root PUBLIC \"-//eaxy//DTD test//EN\" \"http://localhost:1/never-loaded.dtd\">";
+        Document document = read("<?xml version=\"1.0\" encoding=\"iso-8859-1\"?>" + docType + "<root />");
+        assertThat(document.toXML()).contains(docType).contains("encoding=\"iso-8859-1\"");
+    }
+
+    @Test
+    public void shouldReadLatin1() {
+        byte[] bytes = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><root>blåbærsyltetøy</root>"
+                .getBytes(StandardCharsets.ISO_8859_1);
+        Document document = StaxReader.read(new XmlTokenizer(ByteBuffer.wrap(bytes)), null);
+        assertThat(document.getRootElement().text()).isEqualTo("blåbærsyltetøy");
+    }
+
+    @Test
+    public void shouldCountCharactersAndBytesSeparately() {
+        String xml = "<root><a>æøå and 😀</a><b/></root>";
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        XmlTokenizer tokenizer = new XmlTokenizer(ByteBuffer.wrap(bytes));
+        while (tokenizer.next() != XmlScanner.END_ELEMENT) {
+        }
+        String before = xml.substring(0, xml.indexOf("<b/>"));
+        assertThat(tokenizer.getCharacterOffset()).isEqualTo(before.length()).isEqualTo(23);
+        assertThat(tokenizer.getByteOffset()).isEqualTo(before.getBytes(StandardCharsets.UTF_8).length).isEqualTo(28);
+
+        byte[] latin1 = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><root>blåbær</root>".getBytes(StandardCharsets.ISO_8859_1);
+        XmlTokenizer latin1Tokenizer = new XmlTokenizer(ByteBuffer.wrap(latin1));
+        while (latin1Tokenizer.next() != XmlScanner.END_ELEMENT) {
+        }
+        assertThat(latin1Tokenizer.getCharacterOffset()).isEqualTo(latin1.length).isEqualTo(latin1Tokenizer.getByteOffset());
+    }
+
+    @Test
+    public void shouldRejectMismatchedTags() {
+        assertThatThrownBy(() -> read("<root>\n<open-tag>Malformed</close-tag></root>"))
+            .isInstanceOf(MalformedXMLException.class)
+            .hasMessageContaining("open-tag")
+            .hasMessageEndingWith("on line 2");
+    }
+
+    @Test
+    public void shouldRejectUnboundPrefix() {
+        assertThatThrownBy(() -> read("<root><a:child /></root>"))
+            .isInstanceOf(MalformedXMLException.class)
+            .hasMessageContaining("\"a\"");
+    }
+
+    @Test
+    public void shouldRejectUndeclaredEntities() {
+        assertThatThrownBy(() -> read("<root>&nbsp;</root>").getRootElement().text())
+            .isInstanceOf(MalformedXMLException.class)
+            .hasMessageContaining("nbsp");
+    }
+
+    @Test
+    public void shouldRejectIncompleteDocuments() {
+        assertThatThrownBy(() -> read("<root><child>"))
+            .isInstanceOf(MalformedXMLException.class);
+        assertThatThrownBy(() -> read("<root></root><root></root>"))
+            .isInstanceOf(MalformedXMLException.class);
+    }
+
+    private Document read(String xml) {
+        return StaxReader.read(new XmlTokenizer(ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8))), null);
+    }
+
+}
@@ -6,6 +6,7 @@ import static org.eaxy.Xml.el;
 import static org.eaxy.Xml.text;
 import static org.eaxy.Xml.xml;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.StringReader;
 import java.util.Arrays;
 import java.util.List;
@@ -15,6 +16,7 @@ import org.eaxy.Document;
 import org.eaxy.Element;
 import org.eaxy.MalformedXMLException;
 import org.eaxy.Namespace;
+import org.eaxy.ParseOptions;
 import org.eaxy.QualifiedName;
 import org.eaxy.StaxReader;
 import org.eaxy.Xml;
@@ -221,6 +223,17 @@ public class ElementBuilderTest {
         assertThat(xml(xml).copy().toXML()).isEqualTo(xml);
     }
 
+    @Test
+    public void shouldIgnoreWhitespace() throws IOException {
+        String xml = "<root>\n  <a>one &amp; <![CDATA[two]]></a>\n  <b>\n  three &lt; four\n  </b>\n</root>";
+        Element root = Xml.read(new StringReader(xml), ParseOptions.defaults().ignoreWhitespace(true)).getRootElement();
+        assertThat(root.children()).hasSize(2);
+        assertThat(root.find("a").single().children()).hasSize(2);
+        assertThat(root.find("b").single().children()).hasSize(1);
+        assertThat(root.find("b").single().text()).isEqualTo("\n  three < four\n  ");
+        assertThat(root.toXML()).isEqualTo("<root><a>one &amp; <![CDATA[two]]></a><b>\n  three &lt; four\n  </b></root>");
+    }
+
     @Test
     public void shouldReadDocType() {
         String docType = "<!DOCTYPE MedlineCitationSet PUBLIC \"-//NLM//DTD Medline Citation, 1st January, 2012//EN\" \"http://www.nlm.nih.gov/databases/dtd/nlmmedlinecitationset_120101.dtd\">";
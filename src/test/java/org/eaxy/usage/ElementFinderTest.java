@@ -2,25 +2,57 @@
 package org.eaxy.usage;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.eaxy.Xml.el;
 import static org.eaxy.Xml.text;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.StringReader;
 import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.eaxy.Document;
 import org.eaxy.Element;
+import org.eaxy.ElementFilters;
+import org.eaxy.ElementQuery;
+import org.eaxy.MalformedXMLException;
 import org.eaxy.Namespace;
 import org.eaxy.NonMatchingPathException;
+import org.eaxy.ParseOptions;
 import org.eaxy.Xml;
+import org.eaxy.XmlCheckpoint;
+import org.eaxy.XmlIterable;
 import org.eaxy.XmlIterator;
+import org.eaxy.XmlPushParser;
+import org.eaxy.html.Xhtml;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class ElementFinderTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void shouldExcludeNonmatchingElement() {
         assertThat(el("something").find("something-else")).isEmpty();
@@ -179,6 +211,236 @@ public class ElementFinderTest {
             .containsExactly("right");
     }
 
+    @Test
+    public void shouldIterateOverPathWithoutMatchingSkippedElements() throws IOException {
+        Namespace NS = new Namespace("uri:a", "a");
+        Element xml = el("root",
+                el("list", el("item", "skipped"), el("skipped", el("list", el("item", "nested")))),
+                NS.el("list", el("item", "other namespace")),
+                el("list").attr("type", "used").addAll(
+                        el("item", "first"),
+                        el("item").attr("class", "x").addAll(el("item", "nested in match")),
+                        el("other", el("item", "not a child"))),
+                el("list").attr("type", "used").addAll(el("item", "second")));
+        Path file = folder.newFile("lists.xml").toPath();
+        Files.write(file, xml.toXML().getBytes(StandardCharsets.UTF_8));
+        ElementQuery query = Xml.filter("list[type=used]", "item");
+        assertThat(query.iterate(new StringReader(xml.toXML())))
+            .extracting(e -> e.text())
+            .containsExactly("first", "nested in match", "second");
+        assertThat(query.iterate(file))
+            .extracting(e -> e.text())
+            .containsExactly("first", "nested in match", "second");
+        assertThat(Xml.filter(NS.name("list"), "item").iterate(file))
+            .extracting(e -> e.text())
+            .containsExactlyElementsOf(xml.find(NS.name("list"), "item").texts());
+    }
+
+    @Test
+    public void shouldIterateOverDescendantPaths() throws IOException {
+        Element xml = el("root",
+                el("section", el("title", "top"),
+                        el("div", el("section", el("title", "nested"), el("para", "inside"))),
+                        el("para", el("title", "not a section title"))),
+                el("div", el("span", el("section").attr("id", "deep").addAll(el("title", "deep")))),
+                el("title", "root title"));
+        Path file = folder.newFile("sections.xml").toPath();
+        Files.write(file, xml.toXML().getBytes(StandardCharsets.UTF_8));
+        Object[][] paths = {
+                { "...", "section", "title" },
+                { "section", "...", "title" },
+                { "...", "div", "...", "title" },
+                { "...", "section#deep", "title" },
+                { "div", "...", "section", "..." },
+        };
+        for (Object[] path : paths) {
+            List<String> expected = xml.find(path).texts();
+            assertThat(Xml.filter(path).iterate(new StringReader(xml.toXML())))
+                .as(Arrays.toString(path)).extracting(e -> e.text()).containsExactlyElementsOf(expected);
+            assertThat(Xml.filter(path).iterate(file))
+                .as(Arrays.toString(path)).extracting(e -> e.text()).containsExactlyElementsOf(expected);
+        }
+    }
+
+    @Test
+    public void shouldFindDescendantsWithTagNameIndex() {
+        Document doc = Xml.xml("<html><body>"
+                + "<div id=\"a\"><p class=\"x\">one</p><div id=\"b\"><p>two</p><span><p class=\"x\">three</p></span></div></div>"
+                + "<p>four</p><table><tr><td><p>five</p></td></tr></table>"
+                + "</body></html>");
+        Document indexed = doc.copy().indexTagNames();
+        Object[][] paths = {
+                { "...", "p" },
+                { "...", "p.x" },
+                { "...", "div", "p" },
+                { "...", "div", "...", "p" },
+                { "body", "...", "p" },
+                { "...", "#b", "...", "p" },
+                { "...", "*" },
+                { "...", "missing" },
+        };
+        for (Object[] path : paths) {
+            assertThat(indexed.find(path).texts()).as(Arrays.toString(path)).isEqualTo(doc.find(path).texts());
+            assertThat(indexed.find(path).getPaths()).extracting(p -> p.getPath().toString())
+                .as(Arrays.toString(path)).isEqualTo(doc.find(path).getPaths().stream().map(p -> p.getPath().toString()).collect(Collectors.toList()));
+        }
+
+        indexed.select("#b").add(Xml.el("p", "added"));
+        assertThat(indexed.find("...", "div", "p").texts()).containsExactly("one", "two", "added");
+        indexed.select("#b").take("span");
+        assertThat(indexed.find("...", "p").texts()).containsExactly("one", "two", "added", "four", "five");
+        indexed.select("table").text("gone");
+        assertThat(indexed.find("...", "p").texts()).containsExactly("one", "two", "added", "four");
+        indexed.find("body").first().delete(indexed.select("#a"));
+        assertThat(indexed.find("...", "p").texts()).containsExactly("four");
+    }
+
+    @Test
+    public void shouldFindDescendantsWithAttributeIndex() {
+        Xhtml doc = Xhtml.parse("<html><body>"
+                + "<div id=\"a\" lang=\"en\"><p id=\"c\" lang=\"no\">one</p><div id=\"b\"><p lang=\"en\">two</p></div></div>"
+                + "<p lang=\"en\">three</p><p xmlns:x=\"uri:x\" x:lang=\"en\" id=\"d\">four</p>"
+                + "</body></html>");
+        Document indexed = doc.copy().indexIds().indexAttribute("lang");
+        Object[][] paths = {
+                { "...", "#b" },
+                { "...", "p#c" },
+                { "...", "div#c" },
+                { "...", "[lang=en]" },
+                { "...", "p[lang=en]" },
+                { "...", "#a", "...", "[lang=en]" },
+                { "...", "[lang=fr]" },
+                { "...", new Namespace("uri:x", "x").attr("lang", "en") },
+        };
+        for (Object[] path : paths) {
+            assertThat(indexed.find(path).texts()).as(Arrays.toString(path)).isEqualTo(doc.find(path).texts());
+        }
+        assertThat(new Xhtml(indexed).findById("c").text()).isEqualTo("one");
+
+        indexed.select("#c").id("e");
+        assertThat(indexed.find("...", "#c")).isEmpty();
+        assertThat(indexed.select("#e").text()).isEqualTo("one");
+        indexed.select("#b").attr("lang", "en").attr("id", null);
+        assertThat(indexed.find("...", "[lang=en]").size()).isEqualTo(5);
+        assertThat(indexed.find("...", "#b")).isEmpty();
+    }
+
+    @Test
+    public void shouldResumeIterationFromCheckpoint() throws IOException, ClassNotFoundException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>\n<r:records xmlns:r=\"uri:records\">\n");
+        for (int group = 0; group < 3; group++) {
+            xml.append("  <group id=\"" + group + "\" xmlns=\"uri:group" + group + "\">\n");
+            for (int i = 0; i < 4; i++) {
+                xml.append("    <r:record><name>Record " + group + "-" + i + " æøå</name></r:record>\n");
+            }
+            xml.append("  </group>\n");
+        }
+        xml.append("</r:records>\n");
+        Path file = folder.newFile("records.xml").toPath();
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+
+        ElementQuery query = Xml.filter("...", new Namespace("uri:records").name("record"));
+        ParseOptions options = ParseOptions.nativeParser().ignoreWhitespace(true);
+        List<String> expected = new ArrayList<>();
+        for (Element element : query.iterate(file, options)) {
+            expected.add(element.toXML());
+        }
+        assertThat(expected).hasSize(12);
+
+        XmlIterator iterator = query.iterate(file, options).iterator();
+        for (int i = 0; i < expected.size(); i++) {
+            iterator.next();
+            XmlCheckpoint checkpoint = serializeAndRead(iterator.checkpoint());
+            assertThat(checkpoint.getAncestors()).containsExactly("r:records", "group");
+            List<String> rest = new ArrayList<>();
+            for (Element element : query.iterate(file, options, checkpoint)) {
+                rest.add(element.toXML());
+            }
+            assertThat(rest).as(checkpoint.toString()).isEqualTo(expected.subList(i + 1, expected.size()));
+        }
+        assertThatThrownBy(() -> Xml.filter("group").iterate(file, options, iterator.checkpoint()).iterator())
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static XmlCheckpoint serializeAndRead(XmlCheckpoint checkpoint) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(checkpoint);
+        }
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (XmlCheckpoint) input.readObject();
+        }
+    }
+
+    @Test
+    public void shouldOnlyBuildProjectedDescendants() throws IOException {
+        Element xml = el("packages",
+                el("package", el("id", "1"), el("name", "Paracet"),
+                        el("drug", text("text of drug"), el("atc").attr("V", "N02BE01"), el("form", "tablet")),
+                        el("drug", el("form", "powder"))),
+                el("package", el("id", "2"), el("name", "Ibux")));
+        Path file = folder.newFile("packages.xml").toPath();
+        Files.write(file, xml.toXML().getBytes(StandardCharsets.UTF_8));
+        ParseOptions[] options = {
+                ParseOptions.nativeParser().project("name").project("drug", "atc"),
+                ParseOptions.nativeParser().prefetch(1).project("name").project("...", "atc"),
+        };
+        for (ParseOptions option : options) {
+            assertThat(Xml.filter("package").iterate(file, option))
+                .as(option.toString())
+                .extracting(e -> e.toXML())
+                .containsExactly("<package><name>Paracet</name><drug><atc V=\"N02BE01\" /></drug></package>",
+                        "<package><name>Ibux</name></package>");
+        }
+        assertThat(Xml.filter("package").iterate(new StringReader(xml.toXML()), ParseOptions.defaults().project("drug", "form")))
+            .extracting(e -> e.find("drug", "form").texts())
+            .containsExactly(Arrays.asList("tablet", "powder"), Arrays.asList());
+    }
+
+    @Test
+    public void shouldIterateOnChildPredicates() throws IOException {
+        Element xml = el("packages",
+                el("package", el("id", "1"), el("name", "Paracet"), el("atc").attr("V", "N02BE01")),
+                el("package", el("id", "2"), el("name", "Cipralex"), el("atc").attr("V", "N06AB10"), el("drug", el("form", "tablet"))),
+                el("package", el("id", "3"), el("name", "Ritalin"), el("atc").attr("V", "N06BA04"), el("drug")),
+                el("package", el("id", "4"), el("name", "Ibux")));
+        Path file = folder.newFile("packages.xml").toPath();
+        Files.write(file, xml.toXML().getBytes(StandardCharsets.UTF_8));
+        Object[][] predicates = {
+                { ElementFilters.childAttr("atc", "V", "N06BA04") },
+                { ElementFilters.hasChild("drug") },
+                { ElementFilters.childText("name", "Ibux") },
+                { ElementFilters.hasChild("drug"), ElementFilters.childText("id", "2") },
+                { ElementFilters.hasChild("missing") },
+        };
+        ParseOptions[] options = {
+                ParseOptions.nativeParser(),
+                ParseOptions.defaults(),
+                ParseOptions.nativeParser().prefetch(1),
+                ParseOptions.nativeParser().parallel(),
+        };
+        for (Object[] predicate : predicates) {
+            ElementQuery query = Xml.filter("...", ElementFilters.where("package", predicate));
+            List<String> expected = new Document(xml).find("...", ElementFilters.where("package", predicate)).texts();
+            for (ParseOptions option : options) {
+                assertThat(query.iterate(file, option)).as(query + " " + option)
+                    .extracting(Element::text).isEqualTo(expected);
+            }
+            XmlPushParser parser = new XmlPushParser(query);
+            assertThat(parser.feed(ByteBuffer.wrap(xml.toXML().getBytes(StandardCharsets.UTF_8))))
+                .as(query.toString()).extracting(Element::text).isEqualTo(expected);
+        }
+        assertThat(new Document(xml).find("...", ElementFilters.where("package", ElementFilters.childAttr("atc", "V", "N06BA04"))).texts())
+            .containsExactly("3Ritalin");
+
+        assertThat(Xml.filter(ElementFilters.where("package", ElementFilters.hasChild("drug")))
+                .iterate(file, ParseOptions.nativeParser().project("name")))
+            .extracting(Element::toXML)
+            .containsExactly("<package><name>Cipralex</name></package>", "<package><name>Ritalin</name></package>");
+        assertThatThrownBy(() -> Xml.filter(ElementFilters.where("package", ElementFilters.hasChild("drug")), "id").iterate(file).iterator())
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
     @Test
     public void shouldKeepFullPath() {
         Element xml = el("root", el("a", el("b", el("c"))));
@@ -245,4 +507,113 @@ public class ElementFinderTest {
             .isEqualTo("Outcome of patients with sepsis and septic shock after ICU treatment.");
     }
 
+    @Test
+    public void shouldStreamFilesInParallel() throws IOException {
+        URL file = new File("src/test/xml/performance-suite/medsamp2012.xml.gz").toURI().toURL();
+        ElementQuery query = Xml.filter("MedlineCitation");
+        List<String> expected = query.iterate(file).stream()
+                .map(e -> e.attr("Owner") + e.find("PMID").first().text())
+                .collect(Collectors.toList());
+        assertThat(expected).hasSize(156);
+        assertThat(query.iterate(file).parallelStream()
+                .map(e -> e.attr("Owner") + e.find("PMID").first().text())
+                .collect(Collectors.toList()))
+            .isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldPrefetchOnBackgroundThread() throws IOException {
+        URL file = new File("src/test/xml/performance-suite/medsamp2012.xml.gz").toURI().toURL();
+        ElementQuery query = Xml.filter("MedlineCitation");
+        List<String> expected = query.iterate(file).stream()
+                .map(e -> e.find("PMID").first().text())
+                .collect(Collectors.toList());
+        XmlIterator iterator = query.iterate(file, ParseOptions.defaults().prefetch(10)).iterator();
+        List<String> actual = new ArrayList<>();
+        while (iterator.hasNext()) {
+            actual.add(iterator.next().find("PMID").first().text());
+            assertThat(iterator.currentLineNumber()).isPositive();
+        }
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldReportErrorsFromPrefetchThread() {
+        String xml = "<root>\n<a>1</a>\n<a>2</b>\n</root>";
+        XmlIterator iterator = Xml.filter("a").iterate(new StringReader(xml), ParseOptions.defaults().prefetch(1)).iterator();
+        assertThatThrownBy(() -> { while (iterator.hasNext()) iterator.next(); })
+            .isInstanceOf(MalformedXMLException.class)
+            .hasFieldOrPropertyWithValue("lineNumber", 3);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldStopPrefetchThreadWhenIterationStopsEarly() throws IOException {
+        StringBuilder xml = new StringBuilder("<root>");
+        for (int i = 0; i < 1000; i++) {
+            xml.append("<a>").append(i).append("</a>");
+        }
+        xml.append("</root>");
+        boolean[] closed = { false };
+        URL url = new URL(null, "test:many.xml", new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) {
+                return new URLConnection(u) {
+                    @Override
+                    public void connect() {
+                    }
+
+                    @Override
+                    public InputStream getInputStream() {
+                        return new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8)) {
+                            @Override
+                            public void close() throws IOException {
+                                closed[0] = true;
+                                super.close();
+                            }
+                        };
+                    }
+                };
+            }
+        });
+        try (XmlIterable elements = Xml.filter("a").iterate(url, ParseOptions.nativeParser().prefetch(1))) {
+            for (Element element : elements) {
+                if (element.text().equals("2")) {
+                    break;
+                }
+            }
+            assertThat(prefetchThreads()).isNotEmpty();
+        }
+        assertThat(prefetchThreads()).isEmpty();
+        assertThat(closed[0]).isTrue();
+
+        Path file = folder.newFile("many.xml").toPath();
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+        try (Stream<Element> elements = Xml.filter("a").iterate(file, ParseOptions.nativeParser().prefetch(1)).stream()) {
+            assertThat(elements.findFirst().get().text()).isEqualTo("0");
+        }
+        assertThat(prefetchThreads()).isEmpty();
+
+        XmlIterable lambda = () -> Xml.filter("a").iterate(file, ParseOptions.nativeParser()).iterator();
+        try (Stream<Element> elements = lambda.stream()) {
+            assertThat(elements.count()).isEqualTo(1000);
+        }
+    }
+
+    private static List<Thread> prefetchThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("eaxy-prefetch-"))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void shouldSplitStreamsInBatches() {
+        String xml = "<root><a>1</a><a>2</a><a>3</a></root>";
+        Spliterator<Element> spliterator = Xml.filter("a").iterate(new StringReader(xml)).spliterator();
+        assertThat(spliterator.hasCharacteristics(Spliterator.ORDERED | Spliterator.NONNULL)).isTrue();
+        Spliterator<Element> batch = spliterator.trySplit();
+        assertThat(batch.estimateSize()).isEqualTo(3);
+        assertThat(spliterator.trySplit()).isNull();
+        assertThat(spliterator.tryAdvance(e -> fail("unexpected " + e))).isFalse();
+    }
+
 }
@@ -4,7 +4,22 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.eaxy.Xml.el;
 import static org.eaxy.Xml.text;
 
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eaxy.Document;
 import org.eaxy.Element;
+import org.eaxy.ElementSet;
+import org.eaxy.QualifiedName;
+import org.eaxy.QueryProfile;
+import org.eaxy.Xml;
 import org.junit.Test;
 
 public class ElementManipulationTest {
@@ -49,4 +64,116 @@ public class ElementManipulationTest {
         assertThat(xml.find("p").check().texts()).containsExactly("other text");
     }
 
+    @Test
+    public void shouldKeepAttributesInOrder() {
+        Element xml = el("input", Xml.attr("type", "checkbox"), Xml.attr("name", "agree"));
+        xml.attr("value", "yes").attr("type", "radio").checked(true);
+        assertThat(xml.attrs().keySet()).containsExactly("type", "name", "value", "checked");
+        assertThat(xml.toXML()).isEqualTo("<input type=\"radio\" name=\"agree\" value=\"yes\" checked=\"checked\" />");
+
+        xml.attr("name", null).checked(false);
+        assertThat(xml.attrs()).containsOnlyKeys("type", "value");
+        assertThat(xml.hasAttr("name")).isFalse();
+        assertThat(xml.attr("value")).isEqualTo("yes");
+    }
+
+    @Test
+    public void shouldRemoveAttributesThroughNames() {
+        Element xml = el("a", Xml.attr("href", "#"), Xml.attr("id", "link"), Xml.attr("title", "Link"));
+        assertThat(xml.attrNames()).contains(new QualifiedName("id")).hasSize(3);
+        Iterator<QualifiedName> names = xml.attrNames().iterator();
+        names.next();
+        names.next();
+        names.remove();
+        assertThat(xml.attrs()).containsOnlyKeys("href", "title");
+        assertThat(xml.attrNames().remove(new QualifiedName("href"))).isTrue();
+        assertThat(xml.toXML()).isEqualTo("<a title=\"Link\" />");
+    }
+
+    @Test
+    public void shouldAddChildrenToEmptyElement() {
+        Element xml = el("br");
+        assertThat(xml.text()).isEmpty();
+        assertThat(xml.elements()).isEmpty();
+        Element copy = xml.copy();
+        xml.children().add(el("span", "inside"));
+        assertThat(xml.find("span").single().text()).isEqualTo("inside");
+        assertThat(copy.children()).isEmpty();
+        assertThat(copy.toXML()).isEqualTo("<br />");
+    }
+
+    @Test
+    public void shouldRejectChangesToFrozenElements() {
+        Document doc = Xml.xml("<ul class='list'><li id='a'>first</li><li id='b'>second<br/></li></ul>");
+        Document frozen = doc.freeze();
+        assertThat(frozen.isFrozen()).isTrue();
+        assertThat(frozen.freeze()).isSameAs(frozen);
+        assertThat(frozen.find("li#b").single().text()).isEqualTo("second");
+        assertThat(frozen.find("li").attrs("id")).containsExactly("a", "b");
+        assertThat(frozen.toXML()).isEqualTo(doc.toXML());
+
+        Element list = frozen.getRootElement();
+        assertThatThrownBy(() -> list.add(el("li", "third")))
+            .isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> list.children().remove(0))
+            .isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> list.find("li").attr("class", "item"))
+            .isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> list.select("br").text("changed"))
+            .isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> list.take("#a"))
+            .isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> frozen.setRootElement(el("ol")))
+            .isInstanceOf(UnsupportedOperationException.class);
+        assertThat(frozen.find(".item")).isEmpty();
+
+        Document copy = frozen.copy();
+        copy.find("li").attr("class", "item");
+        assertThat(copy.isFrozen()).isFalse();
+        assertThat(copy.find(".item").check().texts()).containsExactly("first", "second");
+        assertThat(doc.getRootElement().isFrozen()).isFalse();
+    }
+
+    @Test
+    public void shouldKeepIndexOfFrozenDocument() {
+        Document doc = Xml.xml("<div><p id='a'>one</p><section><p id='b'>two</p><span/><span/></section><span/></div>")
+                .indexAttribute("id");
+        Document frozen = doc.freeze();
+        QueryProfile profile = new ElementSet(frozen.getRootElement()).profile("...", "p");
+        assertThat(profile.getResults()).isEqualTo(2);
+        assertThat(profile.getSteps().get(0).getVisited()).isEqualTo(2);
+        assertThat(frozen.select("#b").text()).isEqualTo("two");
+        assertThat(frozen.indexTagNames()).isSameAs(frozen);
+        assertThat(frozen.indexIds()).isSameAs(frozen);
+        assertThatThrownBy(() -> frozen.indexAttribute("class"))
+            .isInstanceOf(UnsupportedOperationException.class);
+
+        Document copy = frozen.copy();
+        assertThat(new ElementSet(copy.getRootElement()).profile("...", "p").getSteps().get(0).getVisited()).isEqualTo(2);
+        assertThat(new ElementSet(Xml.xml(doc.toXML()).getRootElement()).profile("...", "p").getSteps().get(0).getVisited())
+            .isEqualTo(6);
+    }
+
+    @Test
+    public void shouldQueryFrozenDocumentFromSeveralThreads() throws Exception {
+        Element root = el("catalog");
+        for (int i = 0; i < 500; i++) {
+            root.add(el("book", Xml.attr("id", "b" + i), el("title", "Title " + i)));
+        }
+        final Document frozen = new Document(root).freeze();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                final int book = i;
+                results.add(executor.submit((Callable<String>) () -> frozen.find("book#b" + book, "title").single().text()));
+            }
+            for (int i = 0; i < 500; i++) {
+                assertThat(results.get(i).get()).isEqualTo("Title " + i);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
 }
@@ -48,6 +48,25 @@ public class HtmlConvenienceTest {
         assertThat(ul.find("li.lastClass").single().text()).isEqualTo("last element");
     }
 
+    @Test
+    public void shouldMatchWholeClassNames() {
+        Element ul = el("ul",
+                el("li", "primary").attr("class", "btn btn-primary"),
+                el("li", "large").attr("class", "btn-lg\tbtn  active"),
+                el("li", "none"));
+        assertThat(ul.find(".btn").texts()).containsExactly("primary", "large");
+        assertThat(ul.find("li.active").texts()).containsExactly("large");
+        assertThat(ul.find(".btn-primary").single().hasClass("btn")).isTrue();
+        assertThat(ul.find(".primary").isPresent()).isFalse();
+        assertThat(ul.elements().get(2).hasClass("btn")).isFalse();
+
+        Element large = ul.find(".btn-lg").single();
+        large.removeClass("btn");
+        assertThat(large.className()).isEqualTo("btn-lg active");
+        assertThat(large.hasClass("btn")).isFalse();
+        assertThat(ul.find(".btn").texts()).containsExactly("primary");
+    }
+
     @Test
     public void shouldFindById() {
         Element ul = el("ul",